@@ -0,0 +1,61 @@
+package org.codelibs.elasticsearch.langfield.benchmark;
+
+/**
+ * Texts and language sets shared by the benchmarks.
+ */
+final class BenchmarkTexts {
+    static final String[] SMALL_LANGS = { "ar", "de", "en", "fr", "ja", "zh-cn" };
+
+    static final String[] ALL_LANGS = { "ar", "bg", "bn", "ca", "cs", "da", "de", "el", "en", "es", "et", "fa", "fi", "fr",
+            "gu", "he", "hi", "hr", "hu", "id", "it", "ja", "ko", "lt", "lv", "mk", "ml", "nl", "no", "pa", "pl", "pt", "ro",
+            "ru", "si", "sq", "sv", "ta", "te", "th", "tl", "tr", "uk", "ur", "vi", "zh-cn", "zh-tw" };
+
+    private static final String LATIN = "The quick brown fox jumps over the lazy dog. "
+            + "Le renard brun saute par-dessus le chien paresseux. "
+            + "Der schnelle braune Fuchs springt über den faulen Hund. "
+            + "See https://www.example.com/index.html or mail info@example.com for details. ";
+
+    private static final String CJK = "これはペンです。"
+            + "私は東京に住んでいます。"
+            + "这是一支笔。我们明天去北京。";
+
+    private static final String ARABIC = "هذا قلم. "
+            + "الثعلب البني السريع "
+            + "يقفز فوق الكلب الكسول. ";
+
+    private BenchmarkTexts() {
+    }
+
+    static String[] langs(final String langSet) {
+        return "all".equals(langSet) ? ALL_LANGS : SMALL_LANGS;
+    }
+
+    /**
+     * @param script latin, cjk, arabic or mixed
+     * @param length length of the text
+     * @return text made by repeating samples of the script
+     */
+    static String text(final String script, final int length) {
+        final String sample;
+        switch (script) {
+        case "cjk":
+            sample = CJK;
+            break;
+        case "arabic":
+            sample = ARABIC;
+            break;
+        case "mixed":
+            sample = LATIN + CJK + ARABIC;
+            break;
+        default:
+            sample = LATIN;
+            break;
+        }
+        final StringBuilder buf = new StringBuilder(length + sample.length());
+        while (buf.length() < length) {
+            buf.append(sample);
+        }
+        buf.setLength(length);
+        return buf.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package org.codelibs.elasticsearch.langfield.benchmark;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetector;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactoryRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link LangDetector#append(String)} and {@link LangDetector#detect()}
+ * across text lengths, scripts, language sets and engines, with the
+ * per-thread detector the mapper uses and with a new detector per text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DetectorBenchmark {
+
+    @Param({ "20", "200", "2000", "20000", "100000" })
+    public int length;
+
+    @Param({ "latin", "cjk", "arabic", "mixed" })
+    public String script;
+
+    @Param({ "small", "all" })
+    public String langSet;
+
+    @Param({ "random_walk", "deterministic" })
+    public String engine;
+
+    private LangDetectorFactory factory;
+
+    private LangDetector.Engine detectorEngine;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        factory = LangDetectorFactoryRegistry.getFactory(BenchmarkTexts.langs(langSet));
+        detectorEngine = LangDetector.Engine.valueOf(engine.toUpperCase(Locale.ROOT));
+        text = BenchmarkTexts.text(script, length);
+    }
+
+    @Benchmark
+    public String detect() {
+        return detect(factory.getThreadLangDetector());
+    }
+
+    @Benchmark
+    public String detectNewDetector() {
+        return detect(factory.getLangDetector());
+    }
+
+    private String detect(final LangDetector detector) {
+        detector.setEngine(detectorEngine);
+        detector.setSeed(0);
+        detector.append(text);
+        return detector.detect();
+    }
+}
@@ -0,0 +1,41 @@
+package org.codelibs.elasticsearch.langfield.benchmark;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link LangDetectorFactory#create(LangDetectorFactory.Precision, String...)},
+ * the cost of a mapping that needs a language set not loaded yet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FactoryBenchmark {
+
+    @Param({ "small", "all" })
+    public String langSet;
+
+    @Param({ "double", "log8" })
+    public String precision;
+
+    @Benchmark
+    public LangDetectorFactory create() {
+        return LangDetectorFactory.create(LangDetectorFactory.Precision.valueOf(precision.toUpperCase(Locale.ROOT)),
+                BenchmarkTexts.langs(langSet));
+    }
+}
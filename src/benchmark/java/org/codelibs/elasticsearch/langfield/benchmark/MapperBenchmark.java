@@ -0,0 +1,93 @@
+package org.codelibs.elasticsearch.langfield.benchmark;
+
+import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.ParsedDocument;
+import org.elasticsearch.index.mapper.SourceToParse;
+import org.elasticsearch.indices.IndicesService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end parsing of a document with a langstring field,
+ * through LangStringFieldMapper#parseCreateField and the copy to the language field.
+ * A single-node cluster is started to get a real document mapper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+    private static final String INDEX = "benchmark";
+
+    private static final String TYPE = "_doc";
+
+    @Param({ "20", "2000" })
+    public int length;
+
+    @Param({ "latin", "cjk", "mixed" })
+    public String script;
+
+    private ElasticsearchClusterRunner runner;
+
+    private DocumentMapper documentMapper;
+
+    private BytesReference source;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        runner = new ElasticsearchClusterRunner();
+        runner.onBuild((number, settingsBuilder) -> settingsBuilder.put("http.enabled", false))
+                .build(newConfigs().clusterName("langfield-benchmark-" + System.currentTimeMillis()).numOfNode(1)
+                        .pluginTypes("org.codelibs.elasticsearch.langfield.LangFieldPlugin"));
+        runner.ensureYellow();
+        runner.createIndex(INDEX, (Settings) null);
+        runner.ensureYellow(INDEX);
+        final XContentBuilder mapping = XContentFactory.jsonBuilder().startObject().startObject(TYPE)
+                .startObject("properties").startObject("message").field("type", "langstring").endObject().endObject()
+                .endObject().endObject();
+        runner.createMapping(INDEX, TYPE, mapping);
+
+        final Index index = runner.node().injector().getInstance(ClusterService.class).state().metaData().index(INDEX).getIndex();
+        documentMapper = runner.node().injector().getInstance(IndicesService.class).indexServiceSafe(index).mapperService()
+                .documentMapper(TYPE);
+        source = BytesReference.bytes(XContentFactory.jsonBuilder().startObject()
+                .field("message", BenchmarkTexts.text(script, length)).endObject());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        runner.close();
+        runner.clean();
+    }
+
+    @Benchmark
+    public ParsedDocument parse() {
+        return documentMapper.parse(SourceToParse.source(INDEX, TYPE, "1", source, XContentType.JSON));
+    }
+}
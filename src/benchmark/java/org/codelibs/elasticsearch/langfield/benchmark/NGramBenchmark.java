@@ -0,0 +1,65 @@
+package org.codelibs.elasticsearch.langfield.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.elasticsearch.langfield.detect.util.NGram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link NGram#addChar(char)} and {@link NGram#normalize(char)} over a 10,000 character text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NGramBenchmark {
+
+    @Param({ "latin", "cjk", "arabic", "mixed" })
+    public String script;
+
+    private char[] text;
+
+    @Setup
+    public void setup() {
+        text = BenchmarkTexts.text(script, 10000).toCharArray();
+    }
+
+    @Benchmark
+    public long addChar() {
+        final NGram ngram = new NGram();
+        long sum = 0;
+        for (final char c : text) {
+            ngram.addChar(c);
+            for (int n = 1; n <= NGram.N_GRAM; n++) {
+                sum += ngram.getCode(n);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int normalize() {
+        int sum = 0;
+        for (final char c : text) {
+            sum += NGram.normalize(c);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public String normalizeVi() {
+        return NGram.normalize_vi(new String(text));
+    }
+}
@@ -1,18 +1,128 @@
 package org.codelibs.elasticsearch.langfield;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import org.codelibs.elasticsearch.langfield.action.LangFieldStatsAction;
+import org.codelibs.elasticsearch.langfield.action.TransportLangFieldStatsAction;
+import org.codelibs.elasticsearch.langfield.detect.DetectionCache;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Precision;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Storage;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactoryRegistry;
 import org.codelibs.elasticsearch.langfield.index.mapper.LangStringFieldMapper;
+import org.codelibs.elasticsearch.langfield.ingest.LangDetectionProcessor;
+import org.codelibs.elasticsearch.langfield.rest.RestLangFieldStatsAction;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
-public class LangFieldPlugin extends Plugin implements MapperPlugin {
+public class LangFieldPlugin extends Plugin implements ActionPlugin, IngestPlugin, MapperPlugin {
+
+    private static final String MAP_DIRECTORY = "langfield";
+
+    public static final Setting<Precision> DETECTOR_PRECISION_SETTING = new Setting<>("langfield.detector.precision",
+            Precision.DOUBLE.name().toLowerCase(Locale.ROOT), LangFieldPlugin::parsePrecision, Property.NodeScope);
+
+    public static final Setting<Storage> DETECTOR_STORAGE_SETTING = new Setting<>("langfield.detector.storage",
+            Storage.HEAP.name().toLowerCase(Locale.ROOT), LangFieldPlugin::parseStorage, Property.NodeScope);
+
+    public static final Setting<Integer> DETECTOR_CACHE_SIZE_SETTING = Setting.intSetting("langfield.detector.cache.size", 10000, 0,
+            Property.NodeScope);
+
+    public LangFieldPlugin(final Settings settings) {
+        LangDetectorFactoryRegistry.setDefaultPrecision(DETECTOR_PRECISION_SETTING.get(settings));
+        LangDetectorFactoryRegistry.setStorage(DETECTOR_STORAGE_SETTING.get(settings));
+        DetectionCache.getInstance().setMaxSize(DETECTOR_CACHE_SIZE_SETTING.get(settings));
+    }
+
+    @Override
+    public Collection<Object> createComponents(final Client client, final ClusterService clusterService, final ThreadPool threadPool,
+            final ResourceWatcherService resourceWatcherService, final ScriptService scriptService,
+            final NamedXContentRegistry xContentRegistry, final Environment environment, final NodeEnvironment nodeEnvironment,
+            final NamedWriteableRegistry namedWriteableRegistry) {
+        LangDetectorFactoryRegistry.setMapDirectory(nodeEnvironment.nodeDataPaths()[0].resolve(MAP_DIRECTORY));
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void close() throws IOException {
+        LangDetectorFactoryRegistry.deleteMappedFiles();
+    }
 
     @Override
     public Map<String, Mapper.TypeParser> getMappers() {
         return Collections.<String, Mapper.TypeParser> singletonMap(LangStringFieldMapper.CONTENT_TYPE,
                 new LangStringFieldMapper.TypeParser());
     }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(final Processor.Parameters parameters) {
+        return Collections.<String, Processor.Factory> singletonMap(LangDetectionProcessor.TYPE, new LangDetectionProcessor.Factory());
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Collections.<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> singletonList(
+                new ActionHandler<>(LangFieldStatsAction.INSTANCE, TransportLangFieldStatsAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(final Settings settings, final RestController restController,
+            final ClusterSettings clusterSettings, final IndexScopedSettings indexScopedSettings, final SettingsFilter settingsFilter,
+            final IndexNameExpressionResolver indexNameExpressionResolver, final Supplier<DiscoveryNodes> nodesInCluster) {
+        return Collections.<RestHandler> singletonList(new RestLangFieldStatsAction(settings, restController));
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(DETECTOR_PRECISION_SETTING, DETECTOR_STORAGE_SETTING, DETECTOR_CACHE_SIZE_SETTING);
+    }
+
+    private static Precision parsePrecision(final String value) {
+        try {
+            return Precision.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("[langfield.detector.precision] must be one of "
+                    + Arrays.toString(Precision.values()).toLowerCase(Locale.ROOT) + ", got " + value, e);
+        }
+    }
+
+    private static Storage parseStorage(final String value) {
+        try {
+            return Storage.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("[langfield.detector.storage] must be one of "
+                    + Arrays.toString(Storage.values()).toLowerCase(Locale.ROOT) + ", got " + value, e);
+        }
+    }
 }
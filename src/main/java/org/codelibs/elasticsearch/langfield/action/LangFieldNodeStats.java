@@ -0,0 +1,227 @@
+package org.codelibs.elasticsearch.langfield.action;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.elasticsearch.langfield.detect.DetectionCache;
+import org.codelibs.elasticsearch.langfield.stats.DetectionStats;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Language detection statistics of a node.
+ */
+public class LangFieldNodeStats extends BaseNodeResponse implements ToXContentFragment {
+
+    private long count;
+
+    private long cachedCount;
+
+    private double rate;
+
+    private long timeInNanos;
+
+    private long latencyP50;
+
+    private long latencyP99;
+
+    private long iterations;
+
+    private long iterationsP50;
+
+    private long iterationsP99;
+
+    private long unknownCount;
+
+    private long noFeaturesCount;
+
+    private long errorCount;
+
+    private Map<String, Long> languages = Collections.emptyMap();
+
+    private long cacheSize;
+
+    private long cacheHits;
+
+    private long cacheMisses;
+
+    private long cacheEvictions;
+
+    LangFieldNodeStats() {
+    }
+
+    public LangFieldNodeStats(final DiscoveryNode node, final DetectionStats stats, final DetectionCache cache) {
+        super(node);
+        count = stats.getCount();
+        cachedCount = stats.getCachedCount();
+        rate = stats.getRate();
+        timeInNanos = stats.getTimeInNanos();
+        latencyP50 = stats.getLatencyPercentile(50);
+        latencyP99 = stats.getLatencyPercentile(99);
+        iterations = stats.getIterations();
+        iterationsP50 = stats.getIterationsPercentile(50);
+        iterationsP99 = stats.getIterationsPercentile(99);
+        unknownCount = stats.getUnknownCount();
+        noFeaturesCount = stats.getNoFeaturesCount();
+        errorCount = stats.getErrorCount();
+        languages = stats.getLanguageCounts();
+        cacheSize = cache.size();
+        cacheHits = cache.getHitCount();
+        cacheMisses = cache.getMissCount();
+        cacheEvictions = cache.getEvictionCount();
+    }
+
+    static LangFieldNodeStats readNodeStats(final StreamInput in) throws IOException {
+        final LangFieldNodeStats nodeStats = new LangFieldNodeStats();
+        nodeStats.readFrom(in);
+        return nodeStats;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getCachedCount() {
+        return cachedCount;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public long getTimeInNanos() {
+        return timeInNanos;
+    }
+
+    public long getLatencyP50() {
+        return latencyP50;
+    }
+
+    public long getLatencyP99() {
+        return latencyP99;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public long getUnknownCount() {
+        return unknownCount;
+    }
+
+    public long getNoFeaturesCount() {
+        return noFeaturesCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public Map<String, Long> getLanguages() {
+        return languages;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions;
+    }
+
+    @Override
+    public void readFrom(final StreamInput in) throws IOException {
+        super.readFrom(in);
+        count = in.readVLong();
+        cachedCount = in.readVLong();
+        rate = in.readDouble();
+        timeInNanos = in.readVLong();
+        latencyP50 = in.readVLong();
+        latencyP99 = in.readVLong();
+        iterations = in.readVLong();
+        iterationsP50 = in.readVLong();
+        iterationsP99 = in.readVLong();
+        unknownCount = in.readVLong();
+        noFeaturesCount = in.readVLong();
+        errorCount = in.readVLong();
+        languages = in.readMap(StreamInput::readString, StreamInput::readVLong);
+        cacheSize = in.readVLong();
+        cacheHits = in.readVLong();
+        cacheMisses = in.readVLong();
+        cacheEvictions = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVLong(count);
+        out.writeVLong(cachedCount);
+        out.writeDouble(rate);
+        out.writeVLong(timeInNanos);
+        out.writeVLong(latencyP50);
+        out.writeVLong(latencyP99);
+        out.writeVLong(iterations);
+        out.writeVLong(iterationsP50);
+        out.writeVLong(iterationsP99);
+        out.writeVLong(unknownCount);
+        out.writeVLong(noFeaturesCount);
+        out.writeVLong(errorCount);
+        out.writeMap(languages, StreamOutput::writeString, StreamOutput::writeVLong);
+        out.writeVLong(cacheSize);
+        out.writeVLong(cacheHits);
+        out.writeVLong(cacheMisses);
+        out.writeVLong(cacheEvictions);
+    }
+
+    @Override
+    public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+        builder.field("name", getNode().getName());
+        builder.startObject("detection");
+        builder.field("total", count);
+        builder.field("cached", cachedCount);
+        builder.field("per_second", rate);
+        builder.field("time_in_millis", TimeUnit.NANOSECONDS.toMillis(timeInNanos));
+        builder.startObject("latency_in_micros");
+        builder.field("p50", TimeUnit.NANOSECONDS.toMicros(latencyP50));
+        builder.field("p99", TimeUnit.NANOSECONDS.toMicros(latencyP99));
+        builder.endObject();
+        builder.startObject("iterations");
+        builder.field("total", iterations);
+        builder.field("p50", iterationsP50);
+        builder.field("p99", iterationsP99);
+        builder.endObject();
+        builder.field("unknown", unknownCount);
+        builder.field("no_features", noFeaturesCount);
+        builder.field("errors", errorCount);
+        builder.field("unknown_rate", count > 0 ? (double) (unknownCount + noFeaturesCount) / count : 0.0);
+        builder.startObject("languages");
+        for (final Map.Entry<String, Long> entry : languages.entrySet()) {
+            builder.field(entry.getKey(), entry.getValue());
+        }
+        builder.endObject();
+        builder.endObject();
+        builder.startObject("cache");
+        builder.field("size", cacheSize);
+        builder.field("hits", cacheHits);
+        builder.field("misses", cacheMisses);
+        builder.field("evictions", cacheEvictions);
+        final long lookups = cacheHits + cacheMisses;
+        builder.field("hit_rate", lookups > 0 ? (double) cacheHits / lookups : 0.0);
+        builder.endObject();
+        return builder;
+    }
+}
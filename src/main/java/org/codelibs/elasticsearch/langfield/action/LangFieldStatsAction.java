@@ -0,0 +1,32 @@
+package org.codelibs.elasticsearch.langfield.action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.io.stream.Writeable;
+
+public class LangFieldStatsAction extends Action<LangFieldStatsRequest, LangFieldStatsResponse, LangFieldStatsRequestBuilder> {
+
+    public static final LangFieldStatsAction INSTANCE = new LangFieldStatsAction();
+
+    public static final String NAME = "cluster:monitor/langfield/stats";
+
+    private LangFieldStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public LangFieldStatsRequestBuilder newRequestBuilder(final ElasticsearchClient client) {
+        return new LangFieldStatsRequestBuilder(client, this);
+    }
+
+    @Deprecated
+    @Override
+    public LangFieldStatsResponse newResponse() {
+        throw new UnsupportedOperationException("usage of Streamable is to be replaced by Writeable");
+    }
+
+    @Override
+    public Writeable.Reader<LangFieldStatsResponse> getResponseReader() {
+        return LangFieldStatsResponse::new;
+    }
+}
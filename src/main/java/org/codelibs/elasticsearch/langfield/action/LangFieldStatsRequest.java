@@ -0,0 +1,22 @@
+package org.codelibs.elasticsearch.langfield.action;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+/**
+ * Request for the language detection statistics of nodes.
+ */
+public class LangFieldStatsRequest extends BaseNodesRequest<LangFieldStatsRequest> {
+
+    public LangFieldStatsRequest() {
+    }
+
+    /**
+     * Get statistics from nodes based on the nodes ids specified. If none are
+     * passed, statistics for all nodes will be returned.
+     *
+     * @param nodesIds node ids
+     */
+    public LangFieldStatsRequest(final String... nodesIds) {
+        super(nodesIds);
+    }
+}
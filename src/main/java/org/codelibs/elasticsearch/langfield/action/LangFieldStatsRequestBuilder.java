@@ -0,0 +1,12 @@
+package org.codelibs.elasticsearch.langfield.action;
+
+import org.elasticsearch.action.support.nodes.NodesOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class LangFieldStatsRequestBuilder
+        extends NodesOperationRequestBuilder<LangFieldStatsRequest, LangFieldStatsResponse, LangFieldStatsRequestBuilder> {
+
+    public LangFieldStatsRequestBuilder(final ElasticsearchClient client, final LangFieldStatsAction action) {
+        super(client, action, new LangFieldStatsRequest());
+    }
+}
@@ -0,0 +1,46 @@
+package org.codelibs.elasticsearch.langfield.action;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+public class LangFieldStatsResponse extends BaseNodesResponse<LangFieldNodeStats> implements ToXContentFragment {
+
+    LangFieldStatsResponse(final StreamInput in) throws IOException {
+        readFrom(in);
+    }
+
+    public LangFieldStatsResponse(final ClusterName clusterName, final List<LangFieldNodeStats> nodes,
+            final List<FailedNodeException> failures) {
+        super(clusterName, nodes, failures);
+    }
+
+    @Override
+    protected List<LangFieldNodeStats> readNodesFrom(final StreamInput in) throws IOException {
+        return in.readList(LangFieldNodeStats::readNodeStats);
+    }
+
+    @Override
+    protected void writeNodesTo(final StreamOutput out, final List<LangFieldNodeStats> nodes) throws IOException {
+        out.writeStreamableList(nodes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+        builder.startObject("nodes");
+        for (final LangFieldNodeStats nodeStats : getNodes()) {
+            builder.startObject(nodeStats.getNode().getId());
+            nodeStats.toXContent(builder, params);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,60 @@
+package org.codelibs.elasticsearch.langfield.action;
+
+import java.util.List;
+
+import org.codelibs.elasticsearch.langfield.detect.DetectionCache;
+import org.codelibs.elasticsearch.langfield.stats.DetectionStats;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+public class TransportLangFieldStatsAction extends TransportNodesAction<LangFieldStatsRequest, LangFieldStatsResponse,
+        TransportLangFieldStatsAction.NodeStatsRequest, LangFieldNodeStats> {
+
+    @Inject
+    public TransportLangFieldStatsAction(final Settings settings, final ThreadPool threadPool, final ClusterService clusterService,
+            final TransportService transportService, final ActionFilters actionFilters,
+            final IndexNameExpressionResolver indexNameExpressionResolver) {
+        super(settings, LangFieldStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, LangFieldStatsRequest::new, NodeStatsRequest::new, ThreadPool.Names.MANAGEMENT,
+                LangFieldNodeStats.class);
+    }
+
+    @Override
+    protected LangFieldStatsResponse newResponse(final LangFieldStatsRequest request, final List<LangFieldNodeStats> responses,
+            final List<FailedNodeException> failures) {
+        return new LangFieldStatsResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected NodeStatsRequest newNodeRequest(final String nodeId, final LangFieldStatsRequest request) {
+        return new NodeStatsRequest(nodeId);
+    }
+
+    @Override
+    protected LangFieldNodeStats newNodeResponse() {
+        return new LangFieldNodeStats();
+    }
+
+    @Override
+    protected LangFieldNodeStats nodeOperation(final NodeStatsRequest request) {
+        return new LangFieldNodeStats(clusterService.localNode(), DetectionStats.getInstance(), DetectionCache.getInstance());
+    }
+
+    public static class NodeStatsRequest extends BaseNodeRequest {
+
+        public NodeStatsRequest() {
+        }
+
+        NodeStatsRequest(final String nodeId) {
+            super(nodeId);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codelibs.elasticsearch.langfield.detect.util.LangProfile;
+import org.codelibs.elasticsearch.langfield.detect.util.NGram;
+import org.elasticsearch.ElasticsearchException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Language profiles compiled into a single binary resource.
+ *
+ * The build runs {@link #main(String[])} over src/main/resources/profiles,
+ * so the plugin does not parse JSON profiles at runtime. The layout is:
+ *
+ * <pre>
+ * int    magic, version
+ * int    number of languages
+ *        per language: short name length, UTF-8 name, int[N_GRAM] number of words, int entry count
+ * int    number of n-gram keys
+ * var    packed n-gram keys, sorted, as deltas from the previous key
+ *        per language: key indexes as deltas from the previous index, and counts
+ * </pre>
+ *
+ * Fixed-size values are big-endian, and var values are unsigned LEB128.
+ * The counts are divided by the number of words of the same n-gram length
+ * when the profiles are loaded, exactly as {@link LangDetectorFactory} does
+ * for JSON profiles. The decoded profiles are shared by all factories
+ * created while they are reachable.
+ *
+ * @author shinsuke
+ */
+final class CompiledProfiles {
+    static final String RESOURCE_NAME = "/profiles.bin";
+
+    private static final int MAGIC = 0x4c465042; // "LFPB"
+
+    private static final int VERSION = 2;
+
+    private static SoftReference<CompiledProfiles> bundled = new SoftReference<>(null);
+
+    private final Map<String, Integer> langIndexes;
+
+    private final long[] keys;
+
+    private final int[][] nWords;
+
+    private final int[][] keyIndexes;
+
+    private final int[][] counts;
+
+    private CompiledProfiles(final Map<String, Integer> langIndexes, final long[] keys, final int[][] nWords,
+            final int[][] keyIndexes, final int[][] counts) {
+        this.langIndexes = langIndexes;
+        this.keys = keys;
+        this.nWords = nWords;
+        this.keyIndexes = keyIndexes;
+        this.counts = counts;
+    }
+
+    /**
+     * Load the bundled profiles, decoding the resource only if the profiles
+     * decoded by an earlier call have been collected.
+     *
+     * @return compiled profiles, or null if the resource is not available
+     */
+    static synchronized CompiledProfiles load() {
+        CompiledProfiles profiles = bundled.get();
+        if (profiles == null) {
+            profiles = decodeBundled();
+            bundled = new SoftReference<>(profiles);
+        }
+        return profiles;
+    }
+
+    private static CompiledProfiles decodeBundled() {
+        return AccessController.doPrivileged((PrivilegedAction<CompiledProfiles>) () -> {
+            try (InputStream is = CompiledProfiles.class.getResourceAsStream(RESOURCE_NAME)) {
+                if (is == null) {
+                    return null;
+                }
+                return read(is);
+            } catch (final IOException e) {
+                throw new ElasticsearchException("can't open '" + RESOURCE_NAME + "'", e);
+            }
+        });
+    }
+
+    static CompiledProfiles read(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(is.available() > 0 ? is.available() : 8192);
+        final byte[] buf = new byte[65536];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new ElasticsearchException("profile format error in '" + RESOURCE_NAME + "'");
+        }
+
+        final int langSize = buffer.getInt();
+        final Map<String, Integer> langIndexes = new HashMap<>();
+        final int[][] nWords = new int[langSize][NGram.N_GRAM];
+        final int[] entrySizes = new int[langSize];
+        for (int i = 0; i < langSize; i++) {
+            final byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            langIndexes.put(new String(name, StandardCharsets.UTF_8), i);
+            for (int len = 0; len < NGram.N_GRAM; len++) {
+                nWords[i][len] = buffer.getInt();
+            }
+            entrySizes[i] = buffer.getInt();
+        }
+
+        final long[] keys = new long[buffer.getInt()];
+        long key = 0;
+        for (int k = 0; k < keys.length; k++) {
+            key += readVarLong(buffer);
+            keys[k] = key;
+        }
+
+        final int[][] keyIndexes = new int[langSize][];
+        final int[][] counts = new int[langSize][];
+        for (int i = 0; i < langSize; i++) {
+            keyIndexes[i] = new int[entrySizes[i]];
+            counts[i] = new int[entrySizes[i]];
+            int keyIndex = 0;
+            for (int e = 0; e < entrySizes[i]; e++) {
+                keyIndex += (int) readVarLong(buffer);
+                keyIndexes[i][e] = keyIndex;
+                counts[i][e] = (int) readVarLong(buffer);
+            }
+        }
+        return new CompiledProfiles(langIndexes, keys, nWords, keyIndexes, counts);
+    }
+
+    boolean contains(final String lang) {
+        return langIndexes.containsKey(lang);
+    }
+
+    /**
+     * Add the n-gram probabilities of a language to a table builder.
+     *
+     * @param lang language name
+     * @param builder table builder
+     * @param index language index in the table
+     */
+    void addTo(final String lang, final NGramProbTable.Builder builder, final int index) {
+        final Integer i = langIndexes.get(lang);
+        if (i == null) {
+            throw new ElasticsearchException("'" + lang + "' is not in '" + RESOURCE_NAME + "'");
+        }
+        final int[] langKeyIndexes = keyIndexes[i];
+        final int[] langCounts = counts[i];
+        final int[] langNWords = nWords[i];
+        for (int e = 0; e < langKeyIndexes.length; e++) {
+            final long key = keys[langKeyIndexes[e]];
+            final double prob = (double) langCounts[e] / langNWords[length(key) - 1];
+            builder.add(key, index, prob);
+        }
+    }
+
+    /**
+     * Compile JSON profiles into the binary format.
+     *
+     * @param profiles profiles to write
+     * @param os output stream
+     * @throws IOException if the stream cannot be written
+     */
+    static void write(final LangProfile[] profiles, final OutputStream os) throws IOException {
+        final long[][] langKeys = new long[profiles.length][];
+        final int[][] langCounts = new int[profiles.length][];
+        long[] allKeys = new long[0];
+        for (int i = 0; i < profiles.length; i++) {
+            final LangProfile profile = profiles[i];
+            final Map<Long, Integer> freq = new TreeMap<>();
+            for (final Map.Entry<String, Integer> entry : profile.freq.entrySet()) {
+                final String word = entry.getKey();
+                final int length = word.length();
+                if (length >= 1 && length <= NGram.N_GRAM) {
+                    freq.put(NGram.encode(word), entry.getValue());
+                }
+            }
+            langKeys[i] = new long[freq.size()];
+            langCounts[i] = new int[freq.size()];
+            int e = 0;
+            for (final Map.Entry<Long, Integer> entry : freq.entrySet()) {
+                langKeys[i][e] = entry.getKey();
+                langCounts[i][e] = entry.getValue();
+                e++;
+            }
+            allKeys = union(allKeys, langKeys[i]);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(MAGIC).putInt(VERSION).putInt(profiles.length);
+        out.write(header.array());
+        for (int i = 0; i < profiles.length; i++) {
+            final LangProfile profile = profiles[i];
+            final byte[] name = profile.name.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer buffer = ByteBuffer.allocate(2 + name.length + (NGram.N_GRAM + 1) * Integer.BYTES);
+            buffer.putShort((short) name.length).put(name);
+            for (int n = 0; n < NGram.N_GRAM; n++) {
+                buffer.putInt(profile.nWords[n]);
+            }
+            out.write(buffer.putInt(langKeys[i].length).array());
+        }
+        out.write(ByteBuffer.allocate(4).putInt(allKeys.length).array());
+        long previousKey = 0;
+        for (final long key : allKeys) {
+            writeVarLong(out, key - previousKey);
+            previousKey = key;
+        }
+        for (int i = 0; i < profiles.length; i++) {
+            int previousIndex = 0;
+            for (int e = 0; e < langKeys[i].length; e++) {
+                final int keyIndex = Arrays.binarySearch(allKeys, langKeys[i][e]);
+                writeVarLong(out, keyIndex - previousIndex);
+                writeVarLong(out, langCounts[i][e]);
+                previousIndex = keyIndex;
+            }
+        }
+        out.writeTo(os);
+    }
+
+    private static int length(final long key) {
+        for (int len = 1; len < NGram.N_GRAM; len++) {
+            if (key >>> (16 * len) == len) {
+                return len;
+            }
+        }
+        return NGram.N_GRAM;
+    }
+
+    private static void writeVarLong(final OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long[] union(final long[] sorted, final long[] keys) {
+        final long[] merged = Arrays.copyOf(sorted, sorted.length + keys.length);
+        System.arraycopy(keys, 0, merged, sorted.length, keys.length);
+        Arrays.sort(merged);
+        int size = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (size == 0 || merged[size - 1] != merged[i]) {
+                merged[size++] = merged[i];
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * Compile a profile directory at build time.
+     *
+     * @param args profile directory and output file
+     * @throws IOException if a profile cannot be read or the output cannot be written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: CompiledProfiles <profile directory> <output file>");
+        }
+        final File[] files = new File(args[0]).listFiles(f -> f.isFile() && !f.getName().startsWith("."));
+        if (files == null || files.length == 0) {
+            throw new IOException("Not found profile: " + args[0]);
+        }
+        Arrays.sort(files);
+        final ObjectMapper mapper = new ObjectMapper();
+        final LangProfile[] profiles = new LangProfile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            try (InputStream is = new FileInputStream(files[i])) {
+                profiles[i] = mapper.readValue(is, LangProfile.class);
+            }
+        }
+        try (OutputStream os = new FileOutputStream(args[1])) {
+            write(profiles, os);
+        }
+    }
+}
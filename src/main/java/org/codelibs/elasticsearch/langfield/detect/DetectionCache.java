@@ -0,0 +1,463 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide cache of detected languages.
+ *
+ * Titles, categories and boilerplate descriptions recur many times, so the
+ * language of a text is kept under a 128-bit key made of two 64-bit hashes of
+ * the text cleaned by {@link LangDetector}, seeded with the detection settings
+ * such as the language set. The text itself is not kept.
+ *
+ * The cache holds up to {@link #setMaxSize(int)} entries in independently
+ * locked segments. Each segment follows W-TinyLFU: new entries go to a small
+ * LRU window, and an entry leaving the window replaces the oldest entry of
+ * the main area only if it has been looked up more often. The frequencies are
+ * estimated by a count-min sketch of 4-bit counters that are halved
+ * periodically, so one-off texts do not push out recurring ones.
+ *
+ * Mappers have no access to node services, so the cache is a single instance
+ * like {@link LangDetectorFactoryRegistry}.
+ *
+ * @author shinsuke
+ */
+public final class DetectionCache {
+    private static final DetectionCache INSTANCE = new DetectionCache();
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final int MIN_SEGMENT_SIZE = 256;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private volatile Segment[] segments = new Segment[0];
+
+    private volatile int maxSize = 0;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    DetectionCache() {
+    }
+
+    public static DetectionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the max number of entries and clear the cache.
+     *
+     * @param maxSize max number of entries, or 0 to disable the cache
+     */
+    public synchronized void setMaxSize(final int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must be non-negative: " + maxSize);
+        }
+        int count = 1;
+        while (count < MAX_SEGMENTS && maxSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+            count *= 2;
+        }
+        final Segment[] newSegments = new Segment[maxSize > 0 ? count : 0];
+        for (int i = 0; i < newSegments.length; i++) {
+            newSegments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+        this.maxSize = maxSize;
+        segments = newSegments;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return true if the max size is positive
+     */
+    public boolean isEnabled() {
+        return segments.length > 0;
+    }
+
+    /**
+     * Look up a language and count the access for the admission policy.
+     *
+     * @param key1 first hash of the text, see {@link #hash(CharSequence, long)}
+     * @param key2 second hash of the text
+     * @return cached language, or null
+     */
+    public String get(final long key1, final long key2) {
+        final Segment[] current = segments;
+        if (current.length == 0) {
+            return null;
+        }
+        final String lang = segment(current, key1).get(key1, key2);
+        if (lang != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return lang;
+    }
+
+    /**
+     * Cache a detected language.
+     *
+     * @param key1 first hash of the text, see {@link #hash(CharSequence, long)}
+     * @param key2 second hash of the text
+     * @param lang detected language
+     */
+    public void put(final long key1, final long key2, final String lang) {
+        final Segment[] current = segments;
+        if (current.length == 0) {
+            return;
+        }
+        final int evicted = segment(current, key1).put(key1, key2, lang);
+        if (evicted > 0) {
+            evictions.add(evicted);
+        }
+    }
+
+    /**
+     * @return the number of cached languages
+     */
+    public long size() {
+        long size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private static Segment segment(final Segment[] segments, final long key1) {
+        return segments[(int) (key1 >>> 40) & (segments.length - 1)];
+    }
+
+    /**
+     * 64-bit hash of the characters in the manner of MurmurHash3,
+     * taking four characters per block without encoding them into bytes.
+     * Two hashes with different seeds make a 128-bit key.
+     *
+     * @param text text to hash
+     * @param seed seed
+     * @return hash value
+     */
+    public static long hash(final CharSequence text, final long seed) {
+        final int length = text.length();
+        long h = seed;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            final long k = text.charAt(i) | (long) text.charAt(i + 1) << 16 | (long) text.charAt(i + 2) << 32
+                    | (long) text.charAt(i + 3) << 48;
+            h ^= mixK(k);
+            h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+        }
+        long k = 0;
+        for (int shift = 0; i < length; ++i, shift += 16) {
+            k |= (long) text.charAt(i) << shift;
+        }
+        h ^= mixK(k);
+        h ^= length;
+        return fmix(h);
+    }
+
+    private static long mixK(long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        k *= C2;
+        return k;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * W-TinyLFU cache of a part of the key space, guarded by its own lock.
+     * Entries are indexes into parallel arrays, linked into three LRU queues
+     * and found through an open-addressing table, so lookups do not allocate.
+     */
+    static final class Segment {
+        private static final byte WINDOW = 0;
+
+        private static final byte PROBATION = 1;
+
+        private static final byte PROTECTED = 2;
+
+        private static final int SKETCH_DEPTH = 4;
+
+        private static final int MAX_FREQUENCY = 15;
+
+        private final int windowCapacity;
+
+        private final int mainCapacity;
+
+        private final int protectedCapacity;
+
+        private final long[] keys1;
+
+        private final long[] keys2;
+
+        private final String[] values;
+
+        private final int[] prev;
+
+        private final int[] next;
+
+        private final byte[] queues;
+
+        /** least recently used entry of each queue, or -1 */
+        private final int[] heads = { -1, -1, -1 };
+
+        /** most recently used entry of each queue, or -1 */
+        private final int[] tails = { -1, -1, -1 };
+
+        private final int[] sizes = new int[3];
+
+        /** entry index + 1, or 0 for an empty slot */
+        private final int[] table;
+
+        /** head of the unused entries linked by {@link #next} */
+        private int free;
+
+        /** {@link #SKETCH_DEPTH} rows of counters */
+        private final byte[] sketch;
+
+        private final int sketchMask;
+
+        private final int sampleSize;
+
+        private int samples = 0;
+
+        Segment(final int capacity) {
+            windowCapacity = Math.max(1, capacity / 100);
+            mainCapacity = capacity - windowCapacity;
+            protectedCapacity = mainCapacity * 4 / 5;
+            // the window may hold one more entry until it is evicted
+            final int entries = capacity + 1;
+            keys1 = new long[entries];
+            keys2 = new long[entries];
+            values = new String[entries];
+            prev = new int[entries];
+            next = new int[entries];
+            queues = new byte[entries];
+            for (int i = 0; i < entries; i++) {
+                next[i] = i + 1 < entries ? i + 1 : -1;
+            }
+            free = 0;
+            table = new int[powerOfTwo(entries * 2)];
+            final int width = powerOfTwo(Math.max(64, capacity * 2));
+            sketch = new byte[width * SKETCH_DEPTH];
+            sketchMask = width - 1;
+            sampleSize = capacity * 10;
+        }
+
+        synchronized String get(final long key1, final long key2) {
+            increment(key1, key2);
+            final int index = find(key1, key2);
+            if (index < 0) {
+                return null;
+            }
+            switch (queues[index]) {
+            case WINDOW:
+                unlink(index);
+                link(index, WINDOW);
+                break;
+            case PROBATION:
+                unlink(index);
+                link(index, PROTECTED);
+                if (sizes[PROTECTED] > protectedCapacity) {
+                    final int demoted = heads[PROTECTED];
+                    unlink(demoted);
+                    link(demoted, PROBATION);
+                }
+                break;
+            default:
+                unlink(index);
+                link(index, PROTECTED);
+                break;
+            }
+            return values[index];
+        }
+
+        /**
+         * @return the number of evicted entries
+         */
+        synchronized int put(final long key1, final long key2, final String value) {
+            final int found = find(key1, key2);
+            if (found >= 0) {
+                values[found] = value;
+                return 0;
+            }
+            final int index = free;
+            free = next[index];
+            keys1[index] = key1;
+            keys2[index] = key2;
+            values[index] = value;
+            addToTable(index);
+            link(index, WINDOW);
+            return evictWindow();
+        }
+
+        synchronized int size() {
+            return sizes[WINDOW] + sizes[PROBATION] + sizes[PROTECTED];
+        }
+
+        /**
+         * Move the entries over the window capacity to the main area,
+         * admitting each one only if it is more frequent than the victim.
+         */
+        private int evictWindow() {
+            int evicted = 0;
+            while (sizes[WINDOW] > windowCapacity) {
+                final int candidate = heads[WINDOW];
+                unlink(candidate);
+                if (sizes[PROBATION] + sizes[PROTECTED] < mainCapacity) {
+                    link(candidate, PROBATION);
+                    continue;
+                }
+                final int victim = heads[PROBATION] >= 0 ? heads[PROBATION] : heads[PROTECTED];
+                if (victim >= 0 && frequency(keys1[candidate], keys2[candidate]) > frequency(keys1[victim], keys2[victim])) {
+                    unlink(victim);
+                    remove(victim);
+                    link(candidate, PROBATION);
+                } else {
+                    remove(candidate);
+                }
+                ++evicted;
+            }
+            return evicted;
+        }
+
+        private void link(final int index, final byte queue) {
+            queues[index] = queue;
+            prev[index] = tails[queue];
+            next[index] = -1;
+            if (tails[queue] >= 0) {
+                next[tails[queue]] = index;
+            } else {
+                heads[queue] = index;
+            }
+            tails[queue] = index;
+            ++sizes[queue];
+        }
+
+        private void unlink(final int index) {
+            final byte queue = queues[index];
+            if (prev[index] >= 0) {
+                next[prev[index]] = next[index];
+            } else {
+                heads[queue] = next[index];
+            }
+            if (next[index] >= 0) {
+                prev[next[index]] = prev[index];
+            } else {
+                tails[queue] = prev[index];
+            }
+            --sizes[queue];
+        }
+
+        /**
+         * Release an unlinked entry.
+         */
+        private void remove(final int index) {
+            removeFromTable(index);
+            values[index] = null;
+            next[index] = free;
+            free = index;
+        }
+
+        private int find(final long key1, final long key2) {
+            final int mask = table.length - 1;
+            int slot = (int) key1 & mask;
+            while (table[slot] != 0) {
+                final int index = table[slot] - 1;
+                if (keys1[index] == key1 && keys2[index] == key2) {
+                    return index;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void addToTable(final int index) {
+            final int mask = table.length - 1;
+            int slot = (int) keys1[index] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+
+        /**
+         * Remove the entry from the table, shifting back the following entries of the probe sequence.
+         */
+        private void removeFromTable(final int index) {
+            final int mask = table.length - 1;
+            int hole = (int) keys1[index] & mask;
+            while (table[hole] != index + 1) {
+                hole = (hole + 1) & mask;
+            }
+            for (int slot = (hole + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                final int home = (int) keys1[table[slot] - 1] & mask;
+                if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                    table[hole] = table[slot];
+                    hole = slot;
+                }
+            }
+            table[hole] = 0;
+        }
+
+        private void increment(final long key1, final long key2) {
+            long h = key2;
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                h = h * C1 + key1;
+                final int i = row * (sketchMask + 1) + ((int) (h >>> 32) & sketchMask);
+                if (sketch[i] < MAX_FREQUENCY) {
+                    sketch[i]++;
+                }
+            }
+            if (++samples >= sampleSize) {
+                // age the counters so that old popularity fades
+                for (int i = 0; i < sketch.length; i++) {
+                    sketch[i] >>= 1;
+                }
+                samples /= 2;
+            }
+        }
+
+        private int frequency(final long key1, final long key2) {
+            int frequency = MAX_FREQUENCY;
+            long h = key2;
+            for (int row = 0; row < SKETCH_DEPTH; row++) {
+                h = h * C1 + key1;
+                frequency = Math.min(frequency, sketch[row * (sketchMask + 1) + ((int) (h >>> 32) & sketchMask)]);
+            }
+            return frequency;
+        }
+
+        private static int powerOfTwo(final int n) {
+            return Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+        }
+    }
+}
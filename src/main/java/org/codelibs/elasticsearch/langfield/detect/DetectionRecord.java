@@ -0,0 +1,79 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+/**
+ * Detected language recorded in a document, such as
+ * {@code en:0123456789abcdef0123456789abcdef0123456789abcdef}.
+ *
+ * The record holds the language, a 64-bit seed of the detector settings and a 128-bit
+ * fingerprint of the text it was detected from, made of two
+ * {@link DetectionCache#hash(CharSequence, long)} values of the original text.
+ * When a document is parsed again on a replica, by an update or by a reindex,
+ * the recorded language is used as long as the text has not changed and the
+ * field detects with the same settings.
+ *
+ * @author shinsuke
+ */
+public final class DetectionRecord {
+
+    private static final char SEPARATOR = ':';
+
+    private static final int HEX_LENGTH = 16;
+
+    private static final int FINGERPRINT_LENGTH = 3 * HEX_LENGTH;
+
+    private DetectionRecord() {
+    }
+
+    /**
+     * @param lang detected language
+     * @param settings seed of the detector settings the language is detected with
+     * @param text text the language is detected from
+     * @return record of the language and the fingerprint of the settings and the text
+     */
+    public static String format(final String lang, final long settings, final CharSequence text) {
+        final StringBuilder buf = new StringBuilder(lang.length() + 1 + FINGERPRINT_LENGTH);
+        buf.append(lang).append(SEPARATOR);
+        appendHex(buf, settings);
+        appendHex(buf, DetectionCache.hash(text, 0));
+        appendHex(buf, DetectionCache.hash(text, -1));
+        return buf.toString();
+    }
+
+    /**
+     * @param record record made by {@link #format(String, long, CharSequence)}
+     * @param settings seed of the detector settings of the field
+     * @param text text to detect the language from
+     * @return recorded language, or null if the record is malformed or was made from another text
+     *         or with other settings
+     */
+    public static String parse(final String record, final long settings, final CharSequence text) {
+        if (record == null) {
+            return null;
+        }
+        final int pos = record.lastIndexOf(SEPARATOR);
+        if (pos <= 0 || record.length() - pos - 1 != FINGERPRINT_LENGTH) {
+            return null;
+        }
+        if (!matches(record, pos + 1, settings)
+                || !matches(record, pos + 1 + HEX_LENGTH, DetectionCache.hash(text, 0))
+                || !matches(record, pos + 1 + 2 * HEX_LENGTH, DetectionCache.hash(text, -1))) {
+            return null;
+        }
+        return record.substring(0, pos);
+    }
+
+    private static void appendHex(final StringBuilder buf, final long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            buf.append(Character.forDigit((int) (value >>> shift) & 0xf, 16));
+        }
+    }
+
+    private static boolean matches(final String record, final int offset, final long value) {
+        for (int i = 0, shift = 60; shift >= 0; i++, shift -= 4) {
+            if (Character.digit(record.charAt(offset + i), 16) != ((int) (value >>> shift) & 0xf)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,15 +2,16 @@ package org.codelibs.elasticsearch.langfield.detect;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.lang.Character.UnicodeBlock;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.regex.Pattern;
 
 import org.codelibs.elasticsearch.langfield.detect.util.NGram;
+import org.codelibs.elasticsearch.langfield.detect.util.Script;
 import org.elasticsearch.ElasticsearchException;
 
 /**
@@ -23,7 +24,31 @@ import org.elasticsearch.ElasticsearchException;
  * {@link #getProbabilities()} methods returns a list of multiple languages and their probabilities.
  * <p>
  * The detector has some parameters for language detection.
- * See {@link #setAlpha(double)}, {@link #setMaxTextLength(int)} and {@link #setPriorMap(Map)}.
+ * See {@link #setAlpha(double)}, {@link #setMaxTextLength(int)} and {@link #setPriorMap(Map)},
+ * and {@link #setTrials(int)}, {@link #setIterationLimit(int)} and {@link #setConvergenceThreshold(double)}
+ * for the cost of {@link Engine#RANDOM_WALK}.
+ * <p>
+ * {@link #setEngine(Engine)} selects how the n-grams are scored:
+ * {@link Engine#RANDOM_WALK} samples n-grams at random over several trials,
+ * and {@link Engine#DETERMINISTIC} scores every n-gram once in log space,
+ * so the same text always gets the same result.
+ * <p>
+ * {@link #detect(Reader)} reads the text chunk by chunk and scores the n-grams of every chunk as it is read,
+ * so it can stop reading a long text once the leading language is far enough ahead,
+ * see {@link #setEarlyExitMargin(double)}.
+ * <p>
+ * Before scoring n-grams, the scripts of the text are counted with {@link Script}.
+ * A text mostly written in a script that only one language uses, such as Thai or Hangul,
+ * gets that language without scoring, and other texts are scored only for the languages
+ * using their scripts. The languages missing most of the n-grams of the text are
+ * dropped from the random walk as well, using the language masks of {@link NGramProbTable}.
+ * <p>
+ * {@link #setSampling(int, int)} makes {@link #append(String)} take windows spread across a long text
+ * instead of its beginning, so boilerplate at the top of a document does not decide the language.
+ * <p>
+ * {@link #reset()} makes the detector ready for another text while keeping its buffers,
+ * so a thread detecting many texts can reuse one detector without allocating detection state,
+ * see {@link LangDetectorFactory#getThreadLangDetector()}.
  *
  * <pre>
  * import java.util.ArrayList;
@@ -57,39 +82,80 @@ import org.elasticsearch.ElasticsearchException;
  * @see LangDetectorFactory
  */
 public class LangDetector {
+    /**
+     * Scoring algorithm of {@link LangDetector}.
+     */
+    public enum Engine {
+        /** random sampling of n-grams over several trials (the original algorithm) */
+        RANDOM_WALK,
+        /** single pass over all n-grams summing log-probabilities */
+        DETERMINISTIC;
+    }
+
     private static final double ALPHA_DEFAULT = 0.5;
 
     private static final double ALPHA_WIDTH = 0.05;
 
-    private static final int ITERATION_LIMIT = 1000;
+    private static final int TRIALS_DEFAULT = 7;
+
+    private static final int ITERATION_LIMIT_DEFAULT = 1000;
 
     private static final double PROB_THRESHOLD = 0.1;
 
-    private static final double CONV_THRESHOLD = 0.99999;
+    private static final double CONV_THRESHOLD_DEFAULT = 0.99999;
 
     private static final int BASE_FREQ = 10000;
 
-    public static final String UNKNOWN_LANG = "unknown";
+    private static final int MAX_CHECK_INTERVAL = 16;
+
+    private static final int MIN_TRIALS = 2;
+
+    private static final double TRIAL_MARGIN = 0.9;
+
+    private static final double PRUNE_THRESHOLD = 1e-10;
+
+    private static final int PRUNE_CHECKS = 3;
+
+    private static final double SCRIPT_DOMINANCE = 0.9;
+
+    private static final double PRESENCE_RATIO = 0.7;
+
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private static final double EARLY_EXIT_MARGIN_DEFAULT = 0.2;
 
-    private static final Pattern URL_REGEX = Pattern
-            .compile("https?://[-_.?&~;+=/#0-9A-Za-z]{1,2076}");
+    private static final int EARLY_EXIT_LENGTH = 4 * READ_BUFFER_SIZE;
 
-    private static final Pattern MAIL_REGEX = Pattern.compile(
-            "[-_.0-9A-Za-z]{1,64}@[-_0-9A-Za-z]{1,255}[-_.0-9A-Za-z]{1,255}");
+    private static final int MAX_TEXT_LENGTH_DEFAULT = 10000;
 
-    private final Map<String, double[]> wordLangProbMap;
+    private static final int RETAINED_TEXT_CAPACITY = 1 << 16;
+
+    private static final Script[] SCRIPTS = Script.values();
+
+    public static final String UNKNOWN_LANG = "unknown";
+
+    private final NGramProbTable table;
 
     private final List<String> langlist;
 
     private StringBuilder text;
 
+    /** buffer swapped with the text when Latin characters are eliminated */
+    private StringBuilder spareText;
+
+    private final TextScanner scanner = new TextScanner();
+
     private double[] langprob = null;
 
     private double alpha = ALPHA_DEFAULT;
 
-    private final int nTrial = 7;
+    private int nTrial = TRIALS_DEFAULT;
+
+    private int iterationLimit = ITERATION_LIMIT_DEFAULT;
+
+    private double convThreshold = CONV_THRESHOLD_DEFAULT;
 
-    private int maxTextLength = 10000;
+    private int maxTextLength = MAX_TEXT_LENGTH_DEFAULT;
 
     private double[] priorMap = null;
 
@@ -97,16 +163,110 @@ public class LangDetector {
 
     private Long seed = null;
 
+    private Engine engine = Engine.RANDOM_WALK;
+
+    private int ngramSize = 0;
+
+    private int iterations = 0;
+
+    private double earlyExitMargin = EARLY_EXIT_MARGIN_DEFAULT;
+
+    private char[] readBuffer = null;
+
+    private int sampleWindows = 0;
+
+    private int sampleWindowSize = 0;
+
+    /** languages using the scripts of the text, or null for all languages */
+    private boolean[] candidates = null;
+
+    // buffers sized by the number of languages and reused for every text
+
+    private final double[] resultProb;
+
+    private final double[] trialProb;
+
+    private final double[] logScores;
+
+    private final double[] priorBuffer;
+
+    private final boolean[] candidateBuffer;
+
+    private final int[] active;
+
+    private final int[] lowChecks;
+
+    private final int[] coverage;
+
+    private final Random rand = new Random();
+
+    private final NGramHistogram histogram = new NGramHistogram();
+
+    private final NGram ngram = new NGram();
+
+    /** n-grams read by {@link #detect(Reader)}, with and without Latin characters */
+    private final StreamScore streamScore;
+
+    private final StreamScore nonLatinStreamScore;
+
     /**
      * Constructor.
      * LangDetector instance can be constructed via {@link LangDetectorFactory#getLangDetector()}.
      * @param factory {@link LangDetectorFactory} instance (only LangDetectorFactory inside)
      */
     public LangDetector(final LangDetectorFactory factory) {
-        this.wordLangProbMap = factory.wordLangProbMap;
+        this.table = factory.getTable();
         this.langlist = factory.langlist;
         this.text = new StringBuilder();
-        this.seed = factory.seed;
+        this.spareText = new StringBuilder();
+        final int langSize = langlist.size();
+        resultProb = new double[langSize];
+        trialProb = new double[langSize];
+        logScores = new double[langSize];
+        priorBuffer = new double[langSize];
+        candidateBuffer = new boolean[langSize];
+        active = new int[langSize];
+        lowChecks = new int[langSize];
+        coverage = new int[langSize];
+        streamScore = new StreamScore(histogram, ngram, langSize);
+        nonLatinStreamScore = new StreamScore(new NGramHistogram(), new NGram(), langSize);
+    }
+
+    /**
+     * Clear the target text and the detection result, and restore the default parameters,
+     * so the detector can be used for another text.
+     * The internal buffers are kept, except a text buffer grown over
+     * {@value #RETAINED_TEXT_CAPACITY} characters.
+     */
+    public void reset() {
+        text = resetBuffer(text);
+        spareText = resetBuffer(spareText);
+        scanner.reset();
+        histogram.clear();
+        langprob = null;
+        candidates = null;
+        ngramSize = 0;
+        iterations = 0;
+        alpha = ALPHA_DEFAULT;
+        maxTextLength = MAX_TEXT_LENGTH_DEFAULT;
+        nTrial = TRIALS_DEFAULT;
+        iterationLimit = ITERATION_LIMIT_DEFAULT;
+        convThreshold = CONV_THRESHOLD_DEFAULT;
+        priorMap = null;
+        verbose = false;
+        seed = null;
+        engine = Engine.RANDOM_WALK;
+        earlyExitMargin = EARLY_EXIT_MARGIN_DEFAULT;
+        sampleWindows = 0;
+        sampleWindowSize = 0;
+    }
+
+    private static StringBuilder resetBuffer(final StringBuilder buf) {
+        if (buf.capacity() > RETAINED_TEXT_CAPACITY) {
+            return new StringBuilder();
+        }
+        buf.setLength(0);
+        return buf;
     }
 
     /**
@@ -122,6 +282,9 @@ public class LangDetector {
      * @param alpha the smoothing parameter
      */
     public void setAlpha(final double alpha) {
+        if (alpha <= 0) {
+            throw new ElasticsearchException("Alpha must be positive.");
+        }
         this.alpha = alpha;
     }
 
@@ -130,7 +293,8 @@ public class LangDetector {
      * @param priorMap the priorMap to set
      */
     public void setPriorMap(final Map<String, Double> priorMap) {
-        this.priorMap = new double[langlist.size()];
+        this.priorMap = priorBuffer;
+        Arrays.fill(this.priorMap, 0);
         double sump = 0;
         for (int i = 0; i < this.priorMap.length; ++i) {
             final String lang = langlist.get(i);
@@ -151,6 +315,23 @@ public class LangDetector {
         }
     }
 
+    /**
+     * Select the scoring algorithm.
+     * The default value is {@link Engine#RANDOM_WALK}.
+     * @param engine the scoring algorithm
+     */
+    public void setEngine(final Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Set the seed of random numbers used by the detection trials.
+     * @param seed the seed
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
     /**
      * Specify max size of target text to use for language detection.
      * The default value is 10000(10KB).
@@ -160,6 +341,76 @@ public class LangDetector {
         this.maxTextLength = maxTextLength;
     }
 
+    /**
+     * Set the maximum number of trials of {@link Engine#RANDOM_WALK}.
+     * Trials stop early when the completed ones agree by a wide margin.
+     * The default value is 7.
+     * @param trials the number of trials
+     */
+    public void setTrials(final int trials) {
+        if (trials <= 0) {
+            throw new ElasticsearchException("The number of trials must be positive.");
+        }
+        this.nTrial = trials;
+    }
+
+    /**
+     * Set the maximum number of n-grams sampled in a trial of {@link Engine#RANDOM_WALK}.
+     * The default value is 1000.
+     * @param iterationLimit the maximum number of iterations
+     */
+    public void setIterationLimit(final int iterationLimit) {
+        if (iterationLimit <= 0) {
+            throw new ElasticsearchException("Iteration limit must be positive.");
+        }
+        this.iterationLimit = iterationLimit;
+    }
+
+    /**
+     * Set the probability of the leading language that ends a trial of {@link Engine#RANDOM_WALK}.
+     * The default value is 0.99999.
+     * @param convThreshold the probability to stop sampling
+     */
+    public void setConvergenceThreshold(final double convThreshold) {
+        if (convThreshold <= 0 || convThreshold > 1) {
+            throw new ElasticsearchException("Convergence threshold must be in (0, 1].");
+        }
+        this.convThreshold = convThreshold;
+    }
+
+    /**
+     * Sample a text longer than the max text length in windows spread across it.
+     * The text is split into as many equal parts as windows, and the middle of every part is used,
+     * so the detection cost stays within the max text length while the sample covers the whole text.
+     * Windows longer than the max text length divided by the number of windows are shortened.
+     * @param windows the number of windows, or 0 to use the beginning of the text (default)
+     * @param windowSize the number of characters of a window
+     */
+    public void setSampling(final int windows, final int windowSize) {
+        if (windows < 0) {
+            throw new ElasticsearchException("The number of windows must be non-negative.");
+        }
+        if (windows > 0 && windowSize <= 0) {
+            throw new ElasticsearchException("Window size must be positive.");
+        }
+        this.sampleWindows = windows;
+        this.sampleWindowSize = windowSize;
+    }
+
+    /**
+     * Set the margin of the leading language that stops {@link #detect(Reader)} reading the text.
+     * The margin is the difference between the log-likelihoods of the leading language and the second one,
+     * divided by the number of n-grams read so far, so it does not grow with the length of the text.
+     * Reading never stops before {@value #EARLY_EXIT_LENGTH} characters.
+     * The default value is 0.2, which a single-language text usually exceeds and a text mixing
+     * languages of the same script does not. {@link Double#POSITIVE_INFINITY} reads the text
+     * up to the max text length.
+     * @param earlyExitMargin the margin per n-gram to stop reading
+     */
+    public void setEarlyExitMargin(final double earlyExitMargin) {
+        this.earlyExitMargin = earlyExitMargin;
+    }
+
     /**
      * Append the target text for language detection.
      * This method read the text from specified input reader.
@@ -170,32 +421,60 @@ public class LangDetector {
      * @throws IOException Can't read the reader.
      */
     public void append(final Reader reader) throws IOException {
-        final char[] buf = new char[maxTextLength / 2];
-        while (text.length() < maxTextLength && reader.ready()) {
-            final int length = reader.read(buf);
-            append(new String(buf, 0, length));
+        while (read(reader) >= 0) {
+            // append until the end of the reader or the max text length
         }
     }
 
+    /**
+     * Read a chunk of the reader into the target text.
+     * @return the number of characters read, or -1 at the end of the reader or the max text length
+     */
+    private int read(final Reader reader) throws IOException {
+        if (text.length() >= maxTextLength) {
+            return -1;
+        }
+        if (readBuffer == null) {
+            readBuffer = new char[READ_BUFFER_SIZE];
+        }
+        final int length = reader.read(readBuffer);
+        if (length > 0) {
+            scanner.scan(CharBuffer.wrap(readBuffer, 0, length), text, maxTextLength - text.length());
+        }
+        return length;
+    }
+
     /**
      * Append the target text for language detection.
      * If the total size of target text exceeds the limit size specified by {@link LangDetector#setMaxTextLength(int)},
-     * the rest is cut down.
+     * the rest is cut down, or windows are sampled from it with {@link #setSampling(int, int)}.
+     * URLs and e-mail addresses are removed and Vietnamese is normalized in a single pass
+     * by {@link TextScanner}, which appends the result directly to the target text.
      *
      * @param text the target text to append
      */
-    public void append(String text) {
-        text = URL_REGEX.matcher(text).replaceAll(" ");
-        text = MAIL_REGEX.matcher(text).replaceAll(" ");
-        text = NGram.normalize_vi(text);
-        char pre = 0;
-        for (int i = 0; i < text.length() && i < maxTextLength; ++i) {
-            final char c = text.charAt(i);
-            if (c != ' ' || pre != ' ') {
-                this.text.append(c);
+    public void append(final String text) {
+        if (sampleWindows > 0 && text.length() > maxTextLength) {
+            final int stratum = text.length() / sampleWindows;
+            final int windowSize = Math.max(1, Math.min(sampleWindowSize, maxTextLength / sampleWindows));
+            for (int i = 0; i < sampleWindows; ++i) {
+                final int start = i * stratum + (stratum - windowSize) / 2;
+                if (this.text.length() > 0 && this.text.charAt(this.text.length() - 1) != ' ') {
+                    // keep n-grams from spanning two windows
+                    this.text.append(' ');
+                }
+                scanner.scan(CharBuffer.wrap(text, start, start + windowSize), this.text, windowSize);
             }
-            pre = c;
+            return;
         }
+        scanner.scan(text, this.text, maxTextLength);
+    }
+
+    /**
+     * @return the target text appended so far, after URLs and e-mail addresses are removed
+     */
+    public CharSequence getText() {
+        return text;
     }
 
     /**
@@ -203,29 +482,28 @@ public class LangDetector {
      * (eliminate URL, e-mail address and Latin sentence if it is not written in Latin alphabet)
      */
     private void cleaningText() {
-        int latinCount = 0, nonLatinCount = 0;
-        for (int i = 0; i < text.length(); ++i) {
-            final char c = text.charAt(i);
-            if (c <= 'z' && c >= 'A') {
-                ++latinCount;
-            } else if (c >= '\u0300' && UnicodeBlock
-                    .of(c) != UnicodeBlock.LATIN_EXTENDED_ADDITIONAL) {
-                ++nonLatinCount;
-            }
-        }
-        if (latinCount * 2 < nonLatinCount) {
-            final StringBuilder textWithoutLatin = new StringBuilder();
+        if (isLatinEliminated()) {
+            final StringBuilder textWithoutLatin = spareText;
+            textWithoutLatin.setLength(0);
             for (int i = 0; i < text.length(); ++i) {
                 final char c = text.charAt(i);
-                if (c > 'z' || c < 'A') {
+                if (!NGram.isLatin(c)) {
                     textWithoutLatin.append(c);
                 }
             }
+            spareText = text;
             text = textWithoutLatin;
         }
 
     }
 
+    /**
+     * @return true if Latin characters are eliminated because the text is mostly in other scripts
+     */
+    private boolean isLatinEliminated() {
+        return scanner.getLatinCount() * 2 < scanner.getNonLatinCount();
+    }
+
     /**
      * Detect language of the target text and return the language name which has the highest probability.
      * @return detected language name which has most probability.
@@ -253,42 +531,477 @@ public class LangDetector {
         return list;
     }
 
+    /**
+     * Read the text from the reader and return the language name which has the highest probability.
+     * @param reader the input reader
+     * @return detected language name which has most probability.
+     * @throws IOException Can't read the reader.
+     * @see #getProbabilities(Reader)
+     */
+    public String detect(final Reader reader) throws IOException {
+        final List<Language> probabilities = getProbabilities(reader);
+        if (probabilities.size() > 0) {
+            return probabilities.get(0).lang;
+        }
+        return UNKNOWN_LANG;
+    }
+
+    /**
+     * Read the text from the reader and get language candidates which have high probabilities.
+     * The n-grams of every chunk are counted and scored as soon as it is read, and reading stops
+     * when the text is decided by its script or the leading language is ahead by the early exit margin,
+     * at the end of the reader or at the max text length.
+     * Both engines then score the n-grams counted while reading, without extracting them again.
+     * @param reader the input reader
+     * @return possible languages list (whose probabilities are over PROB_THRESHOLD, ordered by probabilities descendently
+     * @throws IOException Can't read the reader.
+     */
+    public List<Language> getProbabilities(final Reader reader) throws IOException {
+        if (langprob == null) {
+            detectStream(reader);
+        }
+        return sortProbability(langprob);
+    }
+
+    private void detectStream(final Reader reader) throws IOException {
+        final NGramProbTable.LogProbs logProbs = table.logProbs(alpha / BASE_FREQ);
+        // n-grams with and without Latin characters, until it is known which cleaningText keeps
+        final StreamScore all = streamScore.reset();
+        final StreamScore withoutLatin = nonLatinStreamScore.reset();
+        int start = 0;
+        do {
+            for (int i = start; i < text.length(); ++i) {
+                final char c = text.charAt(i);
+                all.add(c, logProbs);
+                if (!NGram.isLatin(c)) {
+                    withoutLatin.add(c, logProbs);
+                }
+            }
+            start = text.length();
+            if (text.length() >= EARLY_EXIT_LENGTH) {
+                if (detectScript()) {
+                    return;
+                }
+                if (leadingMargin(isLatinEliminated() ? withoutLatin : all) >= earlyExitMargin) {
+                    break;
+                }
+            }
+        } while (read(reader) >= 0);
+
+        if (detectScript()) {
+            return;
+        }
+        scoreNGrams((isLatinEliminated() ? withoutLatin : all).histogram);
+    }
+
+    /**
+     * @param score n-grams read so far
+     * @return difference between the log-likelihoods of the leading candidate and the second one per n-gram,
+     *         or 0 if there are not two candidates
+     */
+    private double leadingMargin(final StreamScore score) {
+        final int size = score.histogram.total();
+        if (size == 0) {
+            return 0;
+        }
+        double first = Double.NEGATIVE_INFINITY;
+        double second = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < score.scores.length; ++j) {
+            if (candidates != null && !candidates[j]) {
+                continue;
+            }
+            final double s = score.scores[j];
+            if (s > first) {
+                second = first;
+                first = s;
+            } else if (s > second) {
+                second = s;
+            }
+        }
+        if (second == Double.NEGATIVE_INFINITY) {
+            return 0;
+        }
+        return (first - second) / size;
+    }
+
     private void detectBlock() {
         cleaningText();
-        final List<String> ngrams = extractNGrams();
-        if (ngrams.size() == 0) {
+        if (detectScript()) {
+            return;
+        }
+        scoreNGrams(extractNGrams());
+    }
+
+    /**
+     * Score the n-grams of the text with the engine.
+     * @param ngrams n-grams of the text
+     */
+    private void scoreNGrams(final NGramHistogram ngrams) {
+        ngramSize = ngrams.total();
+        if (ngramSize == 0) {
             throw new ElasticsearchException("no features in text");
         }
 
-        langprob = new double[langlist.size()];
+        langprob = clearResult();
+
+        if (engine == Engine.DETERMINISTIC) {
+            scoreLogLikelihood(ngrams);
+            return;
+        }
+
+        detectPresence(ngrams);
 
-        final Random rand = new Random();
         if (seed != null) {
             rand.setSeed(seed);
         }
+        int trials = 0;
+        int winner = -1;
+        double minMargin = 1;
         for (int t = 0; t < nTrial; ++t) {
             final double[] prob = initProbability();
             final double alpha = this.alpha + rand.nextGaussian() * ALPHA_WIDTH;
+            int activeSize = 0;
+            for (int j = 0; j < active.length; ++j) {
+                if (candidates == null || candidates[j]) {
+                    active[activeSize++] = j;
+                }
+                lowChecks[j] = 0;
+            }
 
+            int check = 0;
+            int lastCheck = 0;
+            double lastMaxp = 0;
             for (int i = 0;; ++i) {
-                final int r = rand.nextInt(ngrams.size());
-                updateLangProb(prob, ngrams.get(r), alpha);
-                if (i % 5 == 0) {
-                    if (normalizeProb(prob) > CONV_THRESHOLD
-                            || i >= ITERATION_LIMIT) {
+                final int r = rand.nextInt(ngramSize);
+                updateLangProb(prob, ngrams.sample(r), alpha, active, activeSize);
+                if (i == check) {
+                    final double maxp = normalizeProb(prob, active, activeSize);
+                    if (maxp > convThreshold
+                            || i >= iterationLimit) {
+                        iterations += i + 1;
                         break;
                     }
+                    check = Math.min(i + checkInterval(maxp, lastMaxp, i - lastCheck), iterationLimit);
+                    lastCheck = i;
+                    lastMaxp = maxp;
+                    activeSize = pruneCandidates(prob, active, activeSize, lowChecks);
                     if (verbose) {
                         System.out.println("> " + sortProbability(prob));
                     }
                 }
             }
             for (int j = 0; j < langprob.length; ++j) {
-                langprob[j] += prob[j] / nTrial;
+                langprob[j] += prob[j];
             }
+            ++trials;
             if (verbose) {
                 System.out.println("==> " + sortProbability(prob));
             }
+
+            // skip the remaining trials once the completed ones agree by a wide margin
+            int first = 0;
+            int second = -1;
+            for (int j = 1; j < prob.length; ++j) {
+                if (prob[j] > prob[first]) {
+                    second = first;
+                    first = j;
+                } else if (second < 0 || prob[j] > prob[second]) {
+                    second = j;
+                }
+            }
+            if (winner < 0) {
+                winner = first;
+            } else if (winner != first) {
+                minMargin = 0;
+            }
+            minMargin = Math.min(minMargin, prob[first] - (second < 0 ? 0 : prob[second]));
+            if (trials >= MIN_TRIALS && minMargin >= TRIAL_MARGIN) {
+                break;
+            }
+        }
+        for (int j = 0; j < langprob.length; ++j) {
+            langprob[j] /= trials;
+        }
+    }
+
+    /**
+     * Decide the language by the scripts of the text when one script covers
+     * {@value #SCRIPT_DOMINANCE} of the letters and only one language uses it,
+     * or otherwise restrict the candidates to the languages using the scripts of the text.
+     * Languages of custom profiles, whose scripts are unknown, are always candidates,
+     * and letters of a script no profile is known to use keep all languages.
+     * @return true if the language is decided
+     */
+    private boolean detectScript() {
+        final boolean latinEliminated = isLatinEliminated();
+        // ordinals of the scripts of the text
+        long scripts = 0;
+        Script dominant = null;
+        int dominantCount = 0;
+        int total = 0;
+        for (final Script script : SCRIPTS) {
+            final int count = scanner.getScriptCount(script);
+            if (count == 0 || script == Script.NONE || script == Script.LATIN && latinEliminated) {
+                continue;
+            }
+            if (script == Script.OTHER) {
+                return false;
+            }
+            scripts |= 1L << script.ordinal();
+            total += count;
+            if (dominantCount < count) {
+                dominant = script;
+                dominantCount = count;
+            }
+        }
+        if (dominant == null) {
+            return false;
+        }
+
+        final boolean[] candidates = candidateBuffer;
+        Arrays.fill(candidates, false);
+        int size = 0;
+        int dominantLang = -1;
+        int dominantLangs = 0;
+        for (int j = 0; j < candidates.length; ++j) {
+            if (priorMap != null && priorMap[j] == 0) {
+                continue;
+            }
+            final String lang = langlist.get(j);
+            if (!Script.isKnown(lang) || dominant.isUsedBy(lang)) {
+                dominantLang = j;
+                ++dominantLangs;
+            }
+            for (final Script script : SCRIPTS) {
+                if ((scripts & 1L << script.ordinal()) == 0) {
+                    continue;
+                }
+                if (!Script.isKnown(lang) || script.isUsedBy(lang)) {
+                    candidates[j] = true;
+                    ++size;
+                    break;
+                }
+            }
+        }
+
+        if (dominantLangs == 1 && dominantCount >= total * SCRIPT_DOMINANCE) {
+            langprob = clearResult();
+            langprob[dominantLang] = 1;
+            if (verbose) {
+                System.out.println("==> " + dominant + " " + sortProbability(langprob));
+            }
+            return true;
+        }
+        this.candidates = size > 0 && size < candidates.length ? candidates : null;
+        return false;
+    }
+
+    /**
+     * Restrict the candidates to the languages having entries for at least
+     * {@value #PRESENCE_RATIO} of the n-gram occurrences covered by the best language.
+     * Every missing n-gram multiplies a language by about alpha / {@value #BASE_FREQ},
+     * so the languages dropped here fall far behind and need not be scored.
+     * The occurrences are counted from the language masks of the rows,
+     * visiting only the set bits.
+     * @param ngrams n-grams of the text
+     */
+    private void detectPresence(final NGramHistogram ngrams) {
+        if (!table.hasLanguageMasks()) {
+            return;
+        }
+        long allowed = 0;
+        int allowedSize = 0;
+        for (int j = 0; j < langlist.size(); ++j) {
+            if (candidates == null || candidates[j]) {
+                allowed |= 1L << j;
+                ++allowedSize;
+            }
+        }
+        Arrays.fill(coverage, 0);
+        for (int i = 0; i < ngrams.size(); ++i) {
+            final int count = ngrams.count(i);
+            for (long mask = table.languageMask(ngrams.row(i)) & allowed; mask != 0; mask &= mask - 1) {
+                coverage[Long.numberOfTrailingZeros(mask)] += count;
+            }
+        }
+        int max = 0;
+        for (final int c : coverage) {
+            max = Math.max(max, c);
+        }
+        if (max == 0) {
+            return;
+        }
+        int size = 0;
+        for (int j = 0; j < coverage.length; ++j) {
+            if (coverage[j] > 0 && coverage[j] >= max * PRESENCE_RATIO) {
+                ++size;
+            }
+        }
+        if (size < allowedSize) {
+            // the candidates may be the same buffer, but they are already in the allowed mask
+            for (int j = 0; j < coverage.length; ++j) {
+                candidateBuffer[j] = coverage[j] > 0 && coverage[j] >= max * PRESENCE_RATIO;
+            }
+            candidates = candidateBuffer;
+        }
+    }
+
+    /**
+     * Drop the languages whose probability stays below {@value #PRUNE_THRESHOLD}
+     * for {@value #PRUNE_CHECKS} convergence checks in a row.
+     * Their probability is set to 0, so later iterations update and normalize
+     * only the surviving candidates.
+     * @param prob normalized probabilities
+     * @param active indexes of the active languages, compacted in place
+     * @param activeSize the number of active languages
+     * @param lowChecks the number of checks in a row each language has been below the threshold
+     * @return the number of active languages
+     */
+    private static int pruneCandidates(final double[] prob, final int[] active, final int activeSize, final int[] lowChecks) {
+        int size = 0;
+        for (int k = 0; k < activeSize; ++k) {
+            final int j = active[k];
+            if (prob[j] < PRUNE_THRESHOLD) {
+                if (++lowChecks[j] >= PRUNE_CHECKS) {
+                    prob[j] = 0;
+                    continue;
+                }
+            } else {
+                lowChecks[j] = 0;
+            }
+            active[size++] = j;
+        }
+        return size;
+    }
+
+    /**
+     * Choose the number of iterations until the next convergence check.
+     * The change of the maximum probability since the last check is extrapolated
+     * to the convergence threshold, so the checks are sparse while the probabilities
+     * are far from converging and frequent when they are about to.
+     * @param maxp maximum probability at this check
+     * @param lastMaxp maximum probability at the last check
+     * @param elapsed iterations since the last check
+     * @return iterations until the next check, between 1 and {@value #MAX_CHECK_INTERVAL}
+     */
+    private int checkInterval(final double maxp, final double lastMaxp, final int elapsed) {
+        final double rate = (maxp - lastMaxp) / Math.max(1, elapsed);
+        if (rate <= 0) {
+            return MAX_CHECK_INTERVAL;
+        }
+        return (int) Math.max(1, Math.min(MAX_CHECK_INTERVAL, (convThreshold - maxp) / rate));
+    }
+
+    /**
+     * @return the number of known n-grams in the text, available after detection,
+     *  or 0 if the script of the text decided the language
+     */
+    public int getNGramSize() {
+        return ngramSize;
+    }
+
+    /**
+     * @return the number of n-grams sampled by all trials until the probabilities converged,
+     *  or 0 with {@link Engine#DETERMINISTIC}
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Score all n-grams once by summing log-probabilities per language,
+     * and convert the sums into probabilities.
+     * An n-gram occurring several times is weighted by its count.
+     * @param ngrams n-grams in the text
+     */
+    private void scoreLogLikelihood(final NGramHistogram ngrams) {
+        final double[] scores = initLogScores(logScores);
+        final NGramProbTable.LogProbs logProbs = table.logProbs(alpha / BASE_FREQ);
+        for (int i = 0; i < ngrams.size(); ++i) {
+            table.addLogProbs(scores, ngrams.row(i), logProbs, ngrams.count(i));
+        }
+
+        toProbability(scores, langprob);
+        if (verbose) {
+            System.out.println("==> " + sortProbability(langprob));
+        }
+    }
+
+    /**
+     * @param scores array to initialize
+     * @return log-likelihood scores before any n-gram, the log of the prior map if there is
+     */
+    private double[] initLogScores(final double[] scores) {
+        Arrays.fill(scores, 0);
+        if (priorMap != null) {
+            for (int i = 0; i < scores.length; ++i) {
+                scores[i] = Math.log(priorMap[i]);
+            }
+        }
+        if (candidates != null) {
+            for (int i = 0; i < scores.length; ++i) {
+                if (!candidates[i]) {
+                    scores[i] = Double.NEGATIVE_INFINITY;
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Convert log-likelihood scores into probabilities.
+     * @param scores log-likelihood scores
+     * @param prob probabilities to set
+     * @return maximum of probabilities
+     */
+    private static double toProbability(final double[] scores, final double[] prob) {
+        double maxScore = Double.NEGATIVE_INFINITY;
+        for (final double score : scores) {
+            if (maxScore < score) {
+                maxScore = score;
+            }
+        }
+        for (int i = 0; i < scores.length; ++i) {
+            prob[i] = Math.exp(scores[i] - maxScore);
+        }
+        return normalizeProb(prob);
+    }
+
+    /**
+     * N-grams of the text read so far and their log-likelihood.
+     */
+    private final class StreamScore {
+        private final NGramHistogram histogram;
+
+        private final NGram ngram;
+
+        private final double[] scores;
+
+        StreamScore(final NGramHistogram histogram, final NGram ngram, final int langSize) {
+            this.histogram = histogram;
+            this.ngram = ngram;
+            this.scores = new double[langSize];
+        }
+
+        private StreamScore reset() {
+            histogram.clear();
+            ngram.reset();
+            initLogScores(scores);
+            return this;
+        }
+
+        private void add(final char c, final NGramProbTable.LogProbs logProbs) {
+            ngram.addChar(c);
+            for (int n = 1; n <= NGram.N_GRAM; ++n) {
+                final long code = ngram.getCode(n);
+                if (code != 0) {
+                    final int row = table.find(code);
+                    if (row >= 0) {
+                        histogram.add(row);
+                        table.addLogProbs(scores, row, logProbs);
+                    }
+                }
+            }
         }
     }
 
@@ -298,7 +1011,7 @@ public class LangDetector {
      * @return initialized map of language probabilities
      */
     private double[] initProbability() {
-        final double[] prob = new double[langlist.size()];
+        final double[] prob = trialProb;
         if (priorMap != null) {
             for (int i = 0; i < prob.length; ++i) {
                 prob[i] = priorMap[i];
@@ -308,49 +1021,76 @@ public class LangDetector {
                 prob[i] = 1.0 / langlist.size();
             }
         }
+        if (candidates != null) {
+            for (int i = 0; i < prob.length; ++i) {
+                if (!candidates[i]) {
+                    prob[i] = 0;
+                }
+            }
+            normalizeProb(prob);
+        }
         return prob;
     }
 
+    /**
+     * @return the result buffer filled with 0
+     */
+    private double[] clearResult() {
+        Arrays.fill(resultProb, 0);
+        return resultProb;
+    }
+
     /**
      * Extract n-grams from target text
-     * @return n-grams list
+     * @return distinct n-grams in the probability table and their counts
      */
-    private List<String> extractNGrams() {
-        final List<String> list = new ArrayList<>();
-        final NGram ngram = new NGram();
+    private NGramHistogram extractNGrams() {
+        histogram.clear();
+        ngram.reset();
         for (int i = 0; i < text.length(); ++i) {
             ngram.addChar(text.charAt(i));
             for (int n = 1; n <= NGram.N_GRAM; ++n) {
-                final String w = ngram.get(n);
-                if (w != null && wordLangProbMap.containsKey(w)) {
-                    list.add(w);
+                final long code = ngram.getCode(n);
+                if (code != 0) {
+                    final int row = table.find(code);
+                    if (row >= 0) {
+                        histogram.add(row);
+                    }
                 }
             }
         }
-        return list;
+        return histogram;
     }
 
     /**
-     * update language probabilities with N-gram string(N=1,2,3)
-     * @param word N-gram string
+     * update language probabilities with N-gram(N=1,2,3)
+     * @param row row of N-gram in the probability table
+     * @param active indexes of the languages not pruned yet
+     * @param activeSize the number of languages not pruned yet
      */
-    private boolean updateLangProb(final double[] prob, final String word,
-            final double alpha) {
-        if (word == null || !wordLangProbMap.containsKey(word)) {
-            return false;
-        }
-
-        final double[] langProbMap = wordLangProbMap.get(word);
+    private void updateLangProb(final double[] prob, final int row,
+            final double alpha, final int[] active, final int activeSize) {
         if (verbose) {
+            final String word = NGram.decode(table.key(row));
+            final double[] langProbMap = new double[prob.length];
+            table.getRow(row, langProbMap);
             System.out.println(word + "(" + unicodeEncode(word) + "):"
                     + wordProbToString(langProbMap));
         }
 
         final double weight = alpha / BASE_FREQ;
-        for (int i = 0; i < prob.length; ++i) {
-            prob[i] *= weight + langProbMap[i];
+        if (weight > 0) {
+            // every language is multiplied by weight + prob; dividing by the
+            // shared factor weight does not change the normalized result, so
+            // only the languages having this n-gram need to be updated
+            table.updateProb(prob, row, weight, active, activeSize);
+        } else {
+            final double[] langProbMap = new double[prob.length];
+            table.getRow(row, langProbMap);
+            for (int i = 0; i < prob.length; ++i) {
+                prob[i] *= weight + langProbMap[i];
+            }
         }
-        return true;
     }
 
     private String wordProbToString(final double[] prob) {
@@ -390,6 +1130,30 @@ public class LangDetector {
         return maxp;
     }
 
+    /**
+     * normalize probabilities of the active languages, the others must be 0
+     * @return maximum of probabilities
+     */
+    static private double normalizeProb(final double[] prob, final int[] active, final int activeSize) {
+        double maxp = 0, sump = 0;
+        for (int k = 0; k < activeSize; ++k) {
+            sump += prob[active[k]];
+        }
+
+        if (sump == 0) {
+            return 0;
+        }
+
+        for (int k = 0; k < activeSize; ++k) {
+            final double p = prob[active[k]] / sump;
+            if (maxp < p) {
+                maxp = p;
+            }
+            prob[active[k]] = p;
+        }
+        return maxp;
+    }
+
     /**
      * @param probabilities HashMap
      * @return lanugage candidates order by probabilities descendently
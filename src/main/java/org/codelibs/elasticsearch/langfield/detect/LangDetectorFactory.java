@@ -4,15 +4,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.codelibs.elasticsearch.langfield.detect.util.LangProfile;
+import org.codelibs.elasticsearch.langfield.detect.util.NGram;
 import org.elasticsearch.ElasticsearchException;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -25,6 +27,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * Before using language detection library,
  * load profiles with {@link LangDetectorFactory#create(String[])} method
  * and set initialization parameters.
+ * A factory is not modified after its profiles are loaded, so one instance
+ * can be shared by many mappers (see {@link LangDetectorFactoryRegistry}).
  *
  * When the language detection,
  * construct LangDetector instance via {@link LangDetectorFactory#getLangDetector()}.
@@ -39,14 +43,64 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * @author shinsuke
  */
 public class LangDetectorFactory {
-    public Map<String, double[]> wordLangProbMap;
+    /**
+     * Precision of the probabilities held in the n-gram table.
+     */
+    public enum Precision {
+        /** 64-bit floating point */
+        DOUBLE,
+        /** 32-bit floating point */
+        FLOAT,
+        /** 16-bit codes on a log scale */
+        LOG16,
+        /** 8-bit codes on a log scale */
+        LOG8;
+    }
+
+    /**
+     * Memory that holds the n-gram table.
+     */
+    public enum Storage {
+        /** arrays on the Java heap */
+        HEAP,
+        /** a direct buffer outside of the Java heap */
+        DIRECT,
+        /** a read-only file mapped into memory and shared through the OS page cache */
+        MMAP;
+    }
+
+    private final Precision precision;
+
+    private final Storage storage;
+
+    private NGramProbTable.Builder tableBuilder;
 
-    public List<String> langlist;
+    private volatile NGramProbTable table;
 
-    public Long seed = null;
+    final List<String> langlist;
+
+    private static final int THREAD_POOL_SIZE = 4;
+
+    /**
+     * A few detectors per thread, most recently used first, so a document with
+     * fields of different language sets or precisions does not replace the
+     * detector on every field. Factories are weakly referenced, and the
+     * detectors of released factories are dropped on the next lookup.
+     */
+    private static final ThreadLocal<ThreadDetector[]> THREAD_DETECTORS = ThreadLocal
+            .withInitial(() -> new ThreadDetector[THREAD_POOL_SIZE]);
 
     LangDetectorFactory() {
-        wordLangProbMap = new HashMap<>();
+        this(Precision.DOUBLE);
+    }
+
+    LangDetectorFactory(final Precision precision) {
+        this(precision, Storage.HEAP);
+    }
+
+    LangDetectorFactory(final Precision precision, final Storage storage) {
+        this.precision = precision;
+        this.storage = storage;
         langlist = new ArrayList<>();
     }
 
@@ -82,13 +136,48 @@ public class LangDetectorFactory {
             factory.addProfile(profile, index, langsize);
             index++;
         }
+        factory.getTable();
         return factory;
     }
 
     public static LangDetectorFactory create(final String... langs) {
-        final LangDetectorFactory factory = new LangDetectorFactory();
-        final ObjectMapper mapper = new ObjectMapper();
+        return create(Precision.DOUBLE, langs);
+    }
+
+    /**
+     * Load profiles of the specified languages from the bundled profiles.
+     * The binary profiles compiled at build time are used when they contain
+     * all languages; otherwise the JSON profiles are parsed.
+     *
+     * @param precision precision of the probabilities in the n-gram table
+     * @param langs languages to load
+     * @return LangDetectorFactory
+     */
+    public static LangDetectorFactory create(final Precision precision, final String... langs) {
+        return create(precision, Storage.HEAP, langs);
+    }
+
+    /**
+     * Load profiles of the specified languages from the bundled profiles.
+     *
+     * @param precision precision of the probabilities in the n-gram table
+     * @param storage memory that holds the n-gram table
+     * @param langs languages to load
+     * @return LangDetectorFactory
+     */
+    public static LangDetectorFactory create(final Precision precision, final Storage storage, final String... langs) {
+        final LangDetectorFactory factory = new LangDetectorFactory(precision, storage);
         final int langsize = langs.length;
+        final CompiledProfiles compiled = CompiledProfiles.load();
+        if (compiled != null && Arrays.stream(langs).allMatch(compiled::contains)) {
+            for (int index = 0; index < langsize; index++) {
+                compiled.addTo(langs[index], factory.newProfile(langs[index], langsize), index);
+            }
+            factory.getTable();
+            return factory;
+        }
+
+        final ObjectMapper mapper = new ObjectMapper();
         int index = 0;
         for (final String lang : langs) {
             final LangProfile profile = AccessController.doPrivileged((PrivilegedAction<LangProfile>) () -> {
@@ -106,6 +195,7 @@ public class LangDetectorFactory {
             factory.addProfile(profile, index, langsize);
             index++;
         }
+        factory.getTable();
         return factory;
     }
 
@@ -116,22 +206,50 @@ public class LangDetectorFactory {
      */
     void addProfile(final LangProfile profile, final int index,
             final int langsize) {
-        final String lang = profile.name;
+        final NGramProbTable.Builder tableBuilder = newProfile(profile.name, langsize);
+        for (final Map.Entry<String, Integer> entry : profile.freq.entrySet()) {
+            final String word = entry.getKey();
+            final int length = word.length();
+            if (length >= 1 && length <= NGram.N_GRAM) {
+                final double prob = entry.getValue().doubleValue()
+                        / profile.nWords[length - 1];
+                tableBuilder.add(NGram.encode(word), index, prob);
+            }
+        }
+    }
+
+    private NGramProbTable.Builder newProfile(final String lang, final int langsize) {
         if (langlist.contains(lang)) {
             throw new ElasticsearchException("duplicate the same language profile");
         }
         langlist.add(lang);
-        for (final String word : profile.freq.keySet()) {
-            if (!wordLangProbMap.containsKey(word)) {
-                wordLangProbMap.put(word, new double[langsize]);
+        if (tableBuilder == null) {
+            if (table != null) {
+                throw new ElasticsearchException("profiles are already loaded");
             }
-            final int length = word.length();
-            if (length >= 1 && length <= 3) {
-                final double prob = profile.freq.get(word).doubleValue()
-                        / profile.nWords[length - 1];
-                wordLangProbMap.get(word)[index] = prob;
+            tableBuilder = new NGramProbTable.Builder(langsize);
+        }
+        return tableBuilder;
+    }
+
+    /**
+     * Get the probability table, building it from the loaded profiles on first use.
+     *
+     * @return n-gram probability table
+     */
+    NGramProbTable getTable() {
+        NGramProbTable current = table;
+        if (current == null) {
+            synchronized (this) {
+                current = table;
+                if (current == null) {
+                    current = tableBuilder.build(precision, storage);
+                    tableBuilder = null;
+                    table = current;
+                }
             }
         }
+        return current;
     }
 
     /**
@@ -147,11 +265,70 @@ public class LangDetectorFactory {
         return langDetector;
     }
 
-    public void setSeed(final long seed) {
-        this.seed = seed;
+    /**
+     * Get the detector of the current thread, reset by {@link LangDetector#reset()}.
+     * Each thread keeps detectors for the {@value #THREAD_POOL_SIZE} factories it used last,
+     * so detecting many texts with the same factories does not allocate new detectors.
+     * The detector must not be kept after the detection or passed to another thread.
+     *
+     * @return LangDetector instance of the current thread
+     */
+    public LangDetector getThreadLangDetector() {
+        if (langlist.size() == 0) {
+            throw new ElasticsearchException("need to load profiles");
+        }
+        final ThreadDetector[] pool = THREAD_DETECTORS.get();
+        int index = 0;
+        ThreadDetector threadDetector = null;
+        for (int i = 0; i < pool.length; i++) {
+            final ThreadDetector entry = pool[i];
+            if (entry != null && entry.factory.get() == null) {
+                // the factory is released
+                pool[i] = null;
+            } else if (entry != null && entry.factory.get() == this) {
+                threadDetector = entry;
+                index = i;
+                break;
+            }
+        }
+        if (threadDetector == null) {
+            threadDetector = new ThreadDetector(this);
+            index = pool.length - 1;
+            for (int i = 0; i < pool.length; i++) {
+                if (pool[i] == null) {
+                    index = i;
+                    break;
+                }
+            }
+        }
+        // move the detector to the front, dropping the least recently used one if the pool is full
+        System.arraycopy(pool, 0, pool, 1, index);
+        pool[0] = threadDetector;
+        final LangDetector langDetector = threadDetector.detector;
+        langDetector.reset();
+        return langDetector;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public Storage getStorage() {
+        return storage;
     }
 
     public final List<String> getLangList() {
         return Collections.unmodifiableList(this.langlist);
     }
+
+    private static final class ThreadDetector {
+        private final WeakReference<LangDetectorFactory> factory;
+
+        private final LangDetector detector;
+
+        ThreadDetector(final LangDetectorFactory factory) {
+            this.factory = new WeakReference<>(factory);
+            this.detector = new LangDetector(factory);
+        }
+    }
 }
@@ -0,0 +1,203 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Precision;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Storage;
+import org.elasticsearch.ElasticsearchException;
+
+/**
+ * Node-wide registry of shared {@link LangDetectorFactory} instances.
+ *
+ * A factory is immutable once its profiles are loaded, so all mappers
+ * configured with the same language set can share a single profile table.
+ * Language sets are normalized (trimmed, de-duplicated and sorted) before
+ * lookup, so the order in a mapping does not matter.
+ *
+ * Factories are also keyed by their {@link Precision}; mappers that do not
+ * choose one get the node default set by {@link #setDefaultPrecision(Precision)}.
+ * The {@link Storage} of new factories is a node-wide choice made by
+ * {@link #setStorage(Storage)}, and {@link Storage#MMAP} tables are written
+ * to the directory set by {@link #setMapDirectory(Path)}.
+ *
+ * Mappers have no close hook, so every mapper holding a factory counts as a
+ * reference to it and the registry only keeps a weak reference. When the
+ * last mapper using a language set is discarded, its factory is released
+ * and the entry is purged on the next lookup.
+ *
+ * @author shinsuke
+ */
+public final class LangDetectorFactoryRegistry {
+
+    private static final Map<String, FactoryReference> factories = new HashMap<>();
+
+    private static final ReferenceQueue<LangDetectorFactory> queue = new ReferenceQueue<>();
+
+    private static volatile Precision defaultPrecision = Precision.DOUBLE;
+
+    private static volatile Storage storage = Storage.HEAP;
+
+    private static volatile Path mapDirectory;
+
+    private LangDetectorFactoryRegistry() {
+    }
+
+    /**
+     * Set the precision used when a mapper does not specify one.
+     *
+     * @param precision default precision
+     */
+    public static void setDefaultPrecision(final Precision precision) {
+        defaultPrecision = precision;
+    }
+
+    public static Precision getDefaultPrecision() {
+        return defaultPrecision;
+    }
+
+    /**
+     * Set the memory that holds the n-gram tables of new factories.
+     *
+     * @param storage storage of n-gram tables
+     */
+    public static void setStorage(final Storage storage) {
+        LangDetectorFactoryRegistry.storage = storage;
+    }
+
+    public static Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Set the directory of the files mapped by {@link Storage#MMAP} tables and
+     * delete the files left there by an earlier run. Without a directory, the
+     * files are written to the temporary directory.
+     *
+     * @param dir directory of mapped files, or null for the temporary directory
+     */
+    public static void setMapDirectory(final Path dir) {
+        if (dir != null) {
+            NGramProbTable.deleteMappedFiles(dir);
+        }
+        mapDirectory = dir;
+    }
+
+    public static Path getMapDirectory() {
+        return mapDirectory;
+    }
+
+    /**
+     * Delete the files in the map directory. Tables that still map a file
+     * keep their mapping.
+     */
+    public static void deleteMappedFiles() {
+        final Path dir = mapDirectory;
+        if (dir != null) {
+            NGramProbTable.deleteMappedFiles(dir);
+        }
+    }
+
+    /**
+     * Get a shared factory for the given languages with the default precision.
+     *
+     * @param langs supported languages
+     * @return shared LangDetectorFactory
+     */
+    public static LangDetectorFactory getFactory(final String... langs) {
+        return getFactory(null, langs);
+    }
+
+    /**
+     * Get a shared factory for the given languages, loading the profiles
+     * only if no live factory exists for the same language set and precision.
+     *
+     * @param precision precision of the n-gram table, or null for the default
+     * @param langs supported languages
+     * @return shared LangDetectorFactory
+     */
+    public static LangDetectorFactory getFactory(final Precision precision, final String... langs) {
+        final Precision tablePrecision = precision != null ? precision : defaultPrecision;
+        final String[] normalizedLangs = normalize(langs);
+        final Storage tableStorage = storage;
+        final String key = tablePrecision + ":" + tableStorage + ":" + String.join(",", normalizedLangs);
+
+        synchronized (factories) {
+            expungeStaleEntries();
+            final LangDetectorFactory factory = get(key);
+            if (factory != null) {
+                return factory;
+            }
+        }
+
+        // load outside the lock so that other language sets are not blocked
+        final LangDetectorFactory loaded = LangDetectorFactory.create(tablePrecision, tableStorage, normalizedLangs);
+
+        synchronized (factories) {
+            final LangDetectorFactory factory = get(key);
+            if (factory != null) {
+                return factory;
+            }
+            factories.put(key, new FactoryReference(key, loaded, queue));
+            return loaded;
+        }
+    }
+
+    /**
+     * @return the number of live factories
+     */
+    public static int size() {
+        synchronized (factories) {
+            expungeStaleEntries();
+            return factories.size();
+        }
+    }
+
+    /**
+     * @param langs languages
+     * @return languages trimmed, de-duplicated and sorted, as the factories are keyed
+     */
+    public static String[] normalize(final String... langs) {
+        final TreeSet<String> langSet = new TreeSet<>();
+        for (final String lang : langs) {
+            if (lang != null && lang.trim().length() > 0) {
+                langSet.add(lang.trim());
+            }
+        }
+        if (langSet.isEmpty()) {
+            throw new ElasticsearchException("need to specify languages");
+        }
+        return langSet.toArray(new String[langSet.size()]);
+    }
+
+    private static LangDetectorFactory get(final String key) {
+        final FactoryReference ref = factories.get(key);
+        if (ref != null) {
+            return ref.get();
+        }
+        return null;
+    }
+
+    private static void expungeStaleEntries() {
+        FactoryReference ref;
+        while ((ref = (FactoryReference) queue.poll()) != null) {
+            if (factories.get(ref.key) == ref) {
+                factories.remove(ref.key);
+            }
+        }
+    }
+
+    private static class FactoryReference extends WeakReference<LangDetectorFactory> {
+        private final String key;
+
+        FactoryReference(final String key, final LangDetectorFactory factory,
+                final ReferenceQueue<LangDetectorFactory> queue) {
+            super(factory, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import java.util.Arrays;
+
+/**
+ * Distinct n-grams of a text and the number of their occurrences.
+ *
+ * N-grams are identified by their row in {@link NGramProbTable}.
+ * A text of 10,000 characters has about 30,000 n-gram occurrences but only
+ * a few hundred distinct n-grams, so {@link LangDetector} keeps the rows and
+ * counts in primitive arrays indexed by an open-addressing hash table.
+ * {@link #sample(int)} maps a random number below {@link #total()} to a row
+ * with the probability of its occurrences, which is the same distribution
+ * as drawing from the list of occurrences.
+ * Users don't use this class directly.
+ */
+final class NGramHistogram {
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** index + 1 of the row in {@link #rows}, or 0 for an empty slot */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    private int[] rows = new int[INITIAL_CAPACITY];
+
+    private int[] counts = new int[INITIAL_CAPACITY];
+
+    /** cumulative counts for {@link #sample(int)}, built on demand */
+    private int[] ends = null;
+
+    /** array reused for {@link #ends} */
+    private int[] endBuffer = new int[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    private int total = 0;
+
+    /**
+     * Count an occurrence of the n-gram.
+     * @param row row of the n-gram in the probability table
+     */
+    void add(final int row) {
+        final int mask = slots.length - 1;
+        int slot = mix(row) & mask;
+        while (slots[slot] != 0) {
+            final int index = slots[slot] - 1;
+            if (rows[index] == row) {
+                counts[index]++;
+                total++;
+                ends = null;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        rows[size] = row;
+        counts[size] = 1;
+        slots[slot] = ++size;
+        total++;
+        ends = null;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Remove all n-grams, keeping the arrays for the next text.
+     */
+    void clear() {
+        // a row only probes past the slots of the rows added before it,
+        // so emptying the slots in reverse order keeps the probe chains of the others
+        final int mask = slots.length - 1;
+        for (int i = size - 1; i >= 0; i--) {
+            int slot = mix(rows[i]) & mask;
+            while (slots[slot] != i + 1) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = 0;
+        }
+        size = 0;
+        total = 0;
+        ends = null;
+    }
+
+    /**
+     * @return the number of distinct n-grams
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of n-gram occurrences
+     */
+    int total() {
+        return total;
+    }
+
+    /**
+     * @param index index between 0 and {@link #size()}
+     * @return row of the n-gram in the probability table
+     */
+    int row(final int index) {
+        return rows[index];
+    }
+
+    /**
+     * @param index index between 0 and {@link #size()}
+     * @return the number of occurrences of the n-gram
+     */
+    int count(final int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param r random number between 0 and {@link #total()}
+     * @return row of the n-gram which has the r-th occurrence
+     */
+    int sample(final int r) {
+        if (ends == null) {
+            if (endBuffer.length < size) {
+                endBuffer = new int[rows.length];
+            }
+            ends = endBuffer;
+            int sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += counts[i];
+                ends[i] = sum;
+            }
+        }
+        int index = Arrays.binarySearch(ends, 0, size, r + 1);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return rows[index];
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        final int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(rows[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static int mix(final int row) {
+        final int h = row * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
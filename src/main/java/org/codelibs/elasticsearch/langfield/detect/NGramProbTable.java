@@ -0,0 +1,765 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Precision;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Storage;
+import org.codelibs.elasticsearch.langfield.detect.util.NGram;
+import org.elasticsearch.ElasticsearchException;
+
+/**
+ * N-gram probability table used by {@link LangDetector}.
+ *
+ * N-grams are packed into a long key (see {@link NGram#encode(CharSequence)})
+ * and looked up in an open-addressing hash table that maps the key to a row.
+ * Most n-grams appear in only a few languages, so the rows are stored in
+ * compressed sparse row layout: row {@code r} owns the entries
+ * {@code rowStarts[r]} to {@code rowStarts[r + 1]}, and each entry is a
+ * pair of a language index and a probability. Languages without an entry
+ * have the probability 0. Entries of a row are sorted by language index.
+ * Probabilities are held with the {@link Precision} given to the builder;
+ * the LOG precisions store a code per entry and look the value up in a table.
+ * With {@link Storage#DIRECT} or {@link Storage#MMAP} all arrays live in one
+ * buffer outside of the Java heap and are read with index arithmetic.
+ * Mapped tables are written to a file named after their checksum in the
+ * directory set by {@link LangDetectorFactoryRegistry#setMapDirectory(Path)},
+ * so identical tables share the OS page cache.
+ * With up to 64 languages, every row also has a mask of the languages having
+ * an entry, so candidates can be found with bit operations.
+ * Users don't use this class directly.
+ */
+final class NGramProbTable {
+    private static final String FILE_PREFIX = "langfield-";
+
+    private final int langSize;
+
+    private final Precision precision;
+
+    private final Storage storage;
+
+    private final LongBuffer keys;
+
+    private final IntBuffer slotRows;
+
+    private final int mask;
+
+    private final LongBuffer rowKeys;
+
+    private final IntBuffer rowStarts;
+
+    private final ShortBuffer langs;
+
+    /** probabilities for {@link Precision#DOUBLE} */
+    private final DoubleBuffer doubleProbs;
+
+    /** probabilities for {@link Precision#FLOAT} */
+    private final FloatBuffer floatProbs;
+
+    /** quantized probabilities for {@link Precision#LOG16} */
+    private final ShortBuffer shortCodes;
+
+    /** quantized probabilities for {@link Precision#LOG8} */
+    private final ByteBuffer byteCodes;
+
+    /** bit i is set if language i has an entry in the row, null with more than 64 languages */
+    private final LongBuffer rowMasks;
+
+    /** probability of each quantized code */
+    private final double[] dequantized;
+
+    private volatile LogProbs logProbs;
+
+    private NGramProbTable(final int langSize, final Precision precision, final Storage storage, final long[] keys,
+            final int[] slotRows, final long[] rowKeys, final int[] rowStarts, final short[] langs, final double[] probs) {
+        this.langSize = langSize;
+        this.precision = precision;
+        this.storage = storage;
+        this.mask = keys.length - 1;
+
+        double[] doubleArray = null;
+        float[] floatArray = null;
+        short[] shortArray = null;
+        byte[] byteArray = null;
+        switch (precision) {
+        case FLOAT:
+            floatArray = new float[probs.length];
+            for (int i = 0; i < probs.length; i++) {
+                floatArray[i] = (float) probs[i];
+            }
+            dequantized = null;
+            break;
+        case LOG16:
+        case LOG8: {
+            final LogQuantizer quantizer = new LogQuantizer(probs, precision == Precision.LOG16 ? 1 << 16 : 1 << 8);
+            if (precision == Precision.LOG16) {
+                shortArray = new short[probs.length];
+                for (int i = 0; i < probs.length; i++) {
+                    shortArray[i] = (short) quantizer.encode(probs[i]);
+                }
+            } else {
+                byteArray = new byte[probs.length];
+                for (int i = 0; i < probs.length; i++) {
+                    byteArray[i] = (byte) quantizer.encode(probs[i]);
+                }
+            }
+            dequantized = quantizer.values;
+            break;
+        }
+        default:
+            doubleArray = probs;
+            dequantized = null;
+            break;
+        }
+
+        long[] masks = null;
+        if (langSize <= Long.SIZE) {
+            masks = new long[rowKeys.length];
+            for (int row = 0; row < masks.length; row++) {
+                for (int e = rowStarts[row]; e < rowStarts[row + 1]; e++) {
+                    masks[row] |= 1L << langs[e];
+                }
+            }
+        }
+
+        if (storage == Storage.HEAP) {
+            this.keys = LongBuffer.wrap(keys);
+            this.slotRows = IntBuffer.wrap(slotRows);
+            this.rowKeys = LongBuffer.wrap(rowKeys);
+            this.rowStarts = IntBuffer.wrap(rowStarts);
+            this.langs = ShortBuffer.wrap(langs);
+            doubleProbs = doubleArray != null ? DoubleBuffer.wrap(doubleArray) : null;
+            floatProbs = floatArray != null ? FloatBuffer.wrap(floatArray) : null;
+            shortCodes = shortArray != null ? ShortBuffer.wrap(shortArray) : null;
+            byteCodes = byteArray != null ? ByteBuffer.wrap(byteArray) : null;
+            rowMasks = masks != null ? LongBuffer.wrap(masks) : null;
+            return;
+        }
+
+        // sections of the off-heap buffer, each aligned to 8 bytes
+        final int keysOffset = 0;
+        final int slotRowsOffset = align(keysOffset + keys.length * Long.BYTES);
+        final int rowKeysOffset = align(slotRowsOffset + slotRows.length * Integer.BYTES);
+        final int rowStartsOffset = align(rowKeysOffset + rowKeys.length * Long.BYTES);
+        final int langsOffset = align(rowStartsOffset + rowStarts.length * Integer.BYTES);
+        final int probsOffset = align(langsOffset + langs.length * Short.BYTES);
+        final int probsBytes;
+        switch (precision) {
+        case FLOAT:
+            probsBytes = probs.length * Float.BYTES;
+            break;
+        case LOG16:
+            probsBytes = probs.length * Short.BYTES;
+            break;
+        case LOG8:
+            probsBytes = probs.length;
+            break;
+        default:
+            probsBytes = probs.length * Double.BYTES;
+            break;
+        }
+        final int masksOffset = align(probsOffset + probsBytes);
+        final int masksBytes = masks != null ? masks.length * Long.BYTES : 0;
+        final int size = align(masksOffset + masksBytes);
+
+        ByteBuffer data = storage == Storage.DIRECT ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        slice(data, keysOffset, keys.length * Long.BYTES).asLongBuffer().put(keys);
+        slice(data, slotRowsOffset, slotRows.length * Integer.BYTES).asIntBuffer().put(slotRows);
+        slice(data, rowKeysOffset, rowKeys.length * Long.BYTES).asLongBuffer().put(rowKeys);
+        slice(data, rowStartsOffset, rowStarts.length * Integer.BYTES).asIntBuffer().put(rowStarts);
+        slice(data, langsOffset, langs.length * Short.BYTES).asShortBuffer().put(langs);
+        final ByteBuffer probsData = slice(data, probsOffset, probsBytes);
+        if (doubleArray != null) {
+            probsData.asDoubleBuffer().put(doubleArray);
+        } else if (floatArray != null) {
+            probsData.asFloatBuffer().put(floatArray);
+        } else if (shortArray != null) {
+            probsData.asShortBuffer().put(shortArray);
+        } else {
+            probsData.put(byteArray);
+        }
+        if (masks != null) {
+            slice(data, masksOffset, masksBytes).asLongBuffer().put(masks);
+        }
+        if (storage == Storage.MMAP) {
+            data = map(data.array(), LangDetectorFactoryRegistry.getMapDirectory());
+        }
+
+        this.keys = slice(data, keysOffset, keys.length * Long.BYTES).asLongBuffer();
+        this.slotRows = slice(data, slotRowsOffset, slotRows.length * Integer.BYTES).asIntBuffer();
+        this.rowKeys = slice(data, rowKeysOffset, rowKeys.length * Long.BYTES).asLongBuffer();
+        this.rowStarts = slice(data, rowStartsOffset, rowStarts.length * Integer.BYTES).asIntBuffer();
+        this.langs = slice(data, langsOffset, langs.length * Short.BYTES).asShortBuffer();
+        final ByteBuffer probsView = slice(data, probsOffset, probsBytes);
+        doubleProbs = doubleArray != null ? probsView.asDoubleBuffer() : null;
+        floatProbs = floatArray != null ? probsView.asFloatBuffer() : null;
+        shortCodes = shortArray != null ? probsView.asShortBuffer() : null;
+        byteCodes = byteArray != null ? probsView : null;
+        rowMasks = masks != null ? slice(data, masksOffset, masksBytes).asLongBuffer() : null;
+    }
+
+    /**
+     * @return true if {@link #languageMask(int)} is available, i.e. there are at most 64 languages
+     */
+    boolean hasLanguageMasks() {
+        return rowMasks != null;
+    }
+
+    /**
+     * @param row row of n-gram
+     * @return mask whose bit i is set if language i has an entry in the row
+     */
+    long languageMask(final int row) {
+        return rowMasks.get(row);
+    }
+
+    /**
+     * @param key packed n-gram
+     * @return row index, or -1 if the n-gram is not in this table
+     */
+    int find(final long key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            final long k = keys.get(slot);
+            if (k == key) {
+                return slotRows.get(slot);
+            } else if (k == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Multiply the language probabilities by the smoothed probabilities of the row,
+     * {@code weight + prob}, divided by the factor {@code weight} shared by all languages.
+     * Only the languages having an entry in the row are touched.
+     *
+     * @param prob language probabilities to update
+     * @param row row of n-gram
+     * @param weight smoothing weight, must be positive
+     */
+    void updateProb(final double[] prob, final int row, final double weight) {
+        final int start = rowStarts.get(row);
+        final int end = rowStarts.get(row + 1);
+        final double invWeight = 1.0 / weight;
+        switch (precision) {
+        case FLOAT:
+            for (int e = start; e < end; e++) {
+                prob[langs.get(e)] *= 1.0 + floatProbs.get(e) * invWeight;
+            }
+            break;
+        case LOG16:
+            for (int e = start; e < end; e++) {
+                prob[langs.get(e)] *= 1.0 + dequantized[shortCodes.get(e) & 0xffff] * invWeight;
+            }
+            break;
+        case LOG8:
+            for (int e = start; e < end; e++) {
+                prob[langs.get(e)] *= 1.0 + dequantized[byteCodes.get(e) & 0xff] * invWeight;
+            }
+            break;
+        default:
+            for (int e = start; e < end; e++) {
+                prob[langs.get(e)] *= 1.0 + doubleProbs.get(e) * invWeight;
+            }
+            break;
+        }
+    }
+
+    /**
+     * Same as {@link #updateProb(double[], int, double)} for the active languages only.
+     * When the active languages are much fewer than the entries of the row, each of them
+     * is looked up in the row by binary search instead of walking all entries.
+     * Inactive languages must have the probability 0, which the full walk leaves as it is.
+     *
+     * @param prob language probabilities to update
+     * @param row row of n-gram
+     * @param weight smoothing weight, must be positive
+     * @param active indexes of the active languages
+     * @param activeSize the number of active languages
+     */
+    void updateProb(final double[] prob, final int row, final double weight, final int[] active, final int activeSize) {
+        final int start = rowStarts.get(row);
+        final int end = rowStarts.get(row + 1);
+        if (activeSize * 4 >= end - start) {
+            updateProb(prob, row, weight);
+            return;
+        }
+        final double invWeight = 1.0 / weight;
+        for (int k = 0; k < activeSize; k++) {
+            final int lang = active[k];
+            int low = start;
+            int high = end - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int value = langs.get(mid);
+                if (value < lang) {
+                    low = mid + 1;
+                } else if (value > lang) {
+                    high = mid - 1;
+                } else {
+                    prob[lang] *= 1.0 + prob(mid) * invWeight;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the log-probabilities of the row to the language scores.
+     *
+     * @param scores language scores to update
+     * @param row row of n-gram
+     * @param logProbs values returned by {@link #logProbs(double)}
+     */
+    void addLogProbs(final double[] scores, final int row, final LogProbs logProbs) {
+        addLogProbs(scores, row, logProbs, 1);
+    }
+
+    /**
+     * Add the log-probabilities of the row, multiplied by the number of its occurrences, to the language scores.
+     *
+     * @param scores language scores to update
+     * @param row row of n-gram
+     * @param logProbs values returned by {@link #logProbs(double)}
+     * @param count number of occurrences of the n-gram
+     */
+    void addLogProbs(final double[] scores, final int row, final LogProbs logProbs, final int count) {
+        final int start = rowStarts.get(row);
+        final int end = rowStarts.get(row + 1);
+        switch (precision) {
+        case FLOAT:
+            for (int e = start; e < end; e++) {
+                scores[langs.get(e)] += Math.log1p(floatProbs.get(e) * logProbs.invWeight) * count;
+            }
+            break;
+        case LOG16:
+            for (int e = start; e < end; e++) {
+                scores[langs.get(e)] += logProbs.values[shortCodes.get(e) & 0xffff] * count;
+            }
+            break;
+        case LOG8:
+            for (int e = start; e < end; e++) {
+                scores[langs.get(e)] += logProbs.values[byteCodes.get(e) & 0xff] * count;
+            }
+            break;
+        default:
+            for (int e = start; e < end; e++) {
+                scores[langs.get(e)] += Math.log1p(doubleProbs.get(e) * logProbs.invWeight) * count;
+            }
+            break;
+        }
+    }
+
+    /**
+     * Get the smoothed log-probabilities relative to the smoothing weight:
+     * {@code log((weight + prob) / weight)}.
+     * Languages without an entry get {@code log(weight / weight) = 0}, so the
+     * term shared by all languages drops out of the sum.
+     * The LOG precisions keep a value per quantized code, cached for the last
+     * requested weight; the other precisions compute the value per entry, so
+     * the table is not copied onto the heap.
+     *
+     * @param weight smoothing weight added to every probability
+     * @return log-probabilities to pass to {@link #addLogProbs(double[], int, LogProbs)}
+     */
+    LogProbs logProbs(final double weight) {
+        if (dequantized == null) {
+            return new LogProbs(weight, null);
+        }
+        LogProbs current = logProbs;
+        if (current == null || current.weight != weight) {
+            final double[] values = new double[dequantized.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Math.log1p(dequantized[i] / weight);
+            }
+            current = new LogProbs(weight, values);
+            logProbs = current;
+        }
+        return current;
+    }
+
+    double get(final int row, final int langIndex) {
+        for (int e = rowStarts.get(row); e < rowStarts.get(row + 1); e++) {
+            if (langs.get(e) == langIndex) {
+                return prob(e);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param row row of n-gram
+     * @param langProbs array to fill with the probabilities of the row
+     */
+    void getRow(final int row, final double[] langProbs) {
+        for (int e = rowStarts.get(row); e < rowStarts.get(row + 1); e++) {
+            langProbs[langs.get(e)] = prob(e);
+        }
+    }
+
+    long key(final int row) {
+        return rowKeys.get(row);
+    }
+
+    int langSize() {
+        return langSize;
+    }
+
+    Precision precision() {
+        return precision;
+    }
+
+    Storage storage() {
+        return storage;
+    }
+
+    int size() {
+        return rowKeys.capacity();
+    }
+
+    int entrySize() {
+        return langs.capacity();
+    }
+
+    private double prob(final int e) {
+        switch (precision) {
+        case FLOAT:
+            return floatProbs.get(e);
+        case LOG16:
+            return dequantized[shortCodes.get(e) & 0xffff];
+        case LOG8:
+            return dequantized[byteCodes.get(e) & 0xff];
+        default:
+            return doubleProbs.get(e);
+        }
+    }
+
+    private static int align(final int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    private static ByteBuffer slice(final ByteBuffer data, final int offset, final int length) {
+        final ByteBuffer buffer = data.duplicate();
+        buffer.limit(offset + length);
+        buffer.position(offset);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Map the bytes from a file in the given directory named after their checksum.
+     * An existing file is used only if its checksum matches; otherwise the bytes
+     * are written to a temporary file that atomically replaces it, so a table
+     * never maps a partly written file. The files stay until
+     * {@link #deleteMappedFiles(Path)} is called for the directory.
+     *
+     * @param bytes content of the table
+     * @param dir directory of the file, or null for the temporary directory
+     * @return read-only buffer mapped from the file
+     */
+    static ByteBuffer map(final byte[] bytes, final Path dir) {
+        final long checksum = checksum(bytes);
+        final String name = FILE_PREFIX + Long.toHexString(checksum) + "-" + bytes.length + ".bin";
+        try {
+            return AccessController.doPrivileged((PrivilegedExceptionAction<ByteBuffer>) () -> {
+                final Path fileDir = dir != null ? dir : Paths.get(System.getProperty("java.io.tmpdir"));
+                Files.createDirectories(fileDir);
+                final Path file = fileDir.resolve(name);
+                if (!Files.exists(file) || Files.size(file) != bytes.length || checksum(file) != checksum) {
+                    final Path tmp = Files.createTempFile(fileDir, FILE_PREFIX, ".tmp");
+                    try {
+                        Files.write(tmp, bytes);
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(tmp);
+                    }
+                }
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes.length);
+                }
+            });
+        } catch (final PrivilegedActionException e) {
+            throw new ElasticsearchException("can't map '" + name + "'", (IOException) e.getException());
+        }
+    }
+
+    /**
+     * Delete the table files in the given directory. Tables that still map a
+     * file keep their mapping; a file that can't be deleted is left for the
+     * next call.
+     *
+     * @param dir directory of the files
+     */
+    static void deleteMappedFiles(final Path dir) {
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            if (!Files.isDirectory(dir)) {
+                return null;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_PREFIX + "*")) {
+                for (final Path file : files) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (final IOException e) {
+                        // still mapped on a platform that can't delete it
+                    }
+                }
+            } catch (final IOException e) {
+                throw new ElasticsearchException("can't list '" + dir + "'", e);
+            }
+            return null;
+        });
+    }
+
+    private static long checksum(final byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static long checksum(final Path file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static int find(final long[] keys, final int[] slotRows, final int mask, final long key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            final long k = keys[slot];
+            if (k == key) {
+                return slotRows[slot];
+            } else if (k == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Smoothing weight and, for the LOG precisions, the log-probability of each quantized code.
+     */
+    static final class LogProbs {
+        private final double weight;
+
+        private final double invWeight;
+
+        private final double[] values;
+
+        LogProbs(final double weight, final double[] values) {
+            this.weight = weight;
+            this.invWeight = 1.0 / weight;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Maps probabilities to codes spread evenly on a log scale
+     * between the smallest and the largest probability.
+     */
+    static final class LogQuantizer {
+        private final double minLog;
+
+        private final double step;
+
+        final double[] values;
+
+        LogQuantizer(final double[] probs, final int levels) {
+            double min = Double.MAX_VALUE;
+            double max = 0;
+            for (final double prob : probs) {
+                if (prob > 0 && prob < min) {
+                    min = prob;
+                }
+                if (prob > max) {
+                    max = prob;
+                }
+            }
+            if (max == 0) {
+                min = max = 1;
+            }
+            minLog = Math.log(min);
+            step = (Math.log(max) - minLog) / (levels - 1);
+            values = new double[levels];
+            for (int i = 0; i < levels; i++) {
+                values[i] = Math.exp(minLog + step * i);
+            }
+        }
+
+        int encode(final double prob) {
+            if (step == 0) {
+                return 0;
+            }
+            final long code = Math.round((Math.log(prob) - minLog) / step);
+            return (int) Math.max(0, Math.min(values.length - 1, code));
+        }
+    }
+
+    /**
+     * Collects n-gram probabilities and builds {@link NGramProbTable}.
+     */
+    static final class Builder {
+        private static final int DEFAULT_CAPACITY = 1024;
+
+        private final int langSize;
+
+        private long[] keys = new long[DEFAULT_CAPACITY];
+
+        private int[] slotRows = new int[DEFAULT_CAPACITY];
+
+        private int mask = DEFAULT_CAPACITY - 1;
+
+        private long[] rowKeys = new long[DEFAULT_CAPACITY / 2];
+
+        private int rowCount;
+
+        private int[] entryRows = new int[DEFAULT_CAPACITY];
+
+        private short[] entryLangs = new short[DEFAULT_CAPACITY];
+
+        private double[] entryProbs = new double[DEFAULT_CAPACITY];
+
+        private int entryCount;
+
+        Builder(final int langSize) {
+            if (langSize > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("too many languages: " + langSize);
+            }
+            this.langSize = langSize;
+        }
+
+        /**
+         * Add the probability of the n-gram for the language.
+         * A zero probability only registers the n-gram.
+         *
+         * @param key packed n-gram
+         * @param langIndex language index
+         * @param prob probability
+         */
+        void add(final long key, final int langIndex, final double prob) {
+            if (key == 0) {
+                throw new IllegalArgumentException("invalid n-gram key");
+            }
+            final int row = addRow(key);
+            if (prob == 0) {
+                return;
+            }
+            if (entryCount == entryProbs.length) {
+                entryRows = Arrays.copyOf(entryRows, entryCount * 2);
+                entryLangs = Arrays.copyOf(entryLangs, entryCount * 2);
+                entryProbs = Arrays.copyOf(entryProbs, entryCount * 2);
+            }
+            entryRows[entryCount] = row;
+            entryLangs[entryCount] = (short) langIndex;
+            entryProbs[entryCount] = prob;
+            entryCount++;
+        }
+
+        NGramProbTable build(final Precision precision) {
+            return build(precision, Storage.HEAP);
+        }
+
+        NGramProbTable build(final Precision precision, final Storage storage) {
+            final int[] rowStarts = new int[rowCount + 1];
+            for (int e = 0; e < entryCount; e++) {
+                rowStarts[entryRows[e] + 1]++;
+            }
+            for (int row = 0; row < rowCount; row++) {
+                rowStarts[row + 1] += rowStarts[row];
+            }
+            final int[] positions = Arrays.copyOf(rowStarts, rowCount);
+            final short[] langs = new short[entryCount];
+            final double[] probs = new double[entryCount];
+            for (int e = 0; e < entryCount; e++) {
+                final int pos = positions[entryRows[e]]++;
+                langs[pos] = entryLangs[e];
+                probs[pos] = entryProbs[e];
+            }
+            for (int row = 0; row < rowCount; row++) {
+                sortByLang(langs, probs, rowStarts[row], rowStarts[row + 1]);
+            }
+            return new NGramProbTable(langSize, precision, storage, keys.clone(), slotRows.clone(),
+                    Arrays.copyOf(rowKeys, rowCount), rowStarts, langs, probs);
+        }
+
+        private int addRow(final long key) {
+            final int row = find(keys, slotRows, mask, key);
+            if (row >= 0) {
+                return row;
+            }
+            if ((rowCount + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            if (rowCount == rowKeys.length) {
+                rowKeys = Arrays.copyOf(rowKeys, rowCount * 2);
+            }
+            insert(key, rowCount);
+            rowKeys[rowCount] = key;
+            return rowCount++;
+        }
+
+        private void insert(final long key, final int row) {
+            int slot = hash(key) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            slotRows[slot] = row;
+        }
+
+        private void rehash(final int capacity) {
+            keys = new long[capacity];
+            slotRows = new int[capacity];
+            mask = capacity - 1;
+            for (int row = 0; row < rowCount; row++) {
+                insert(rowKeys[row], row);
+            }
+        }
+
+        private static void sortByLang(final short[] langs, final double[] probs, final int start, final int end) {
+            for (int i = start + 1; i < end; i++) {
+                final short lang = langs[i];
+                final double prob = probs[i];
+                int j = i - 1;
+                while (j >= start && langs[j] > lang) {
+                    langs[j + 1] = langs[j];
+                    probs[j + 1] = probs[j];
+                    j--;
+                }
+                langs[j + 1] = lang;
+                probs[j + 1] = prob;
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import java.util.Arrays;
+
+import org.codelibs.elasticsearch.langfield.detect.util.NGram;
+import org.codelibs.elasticsearch.langfield.detect.util.Script;
+
+/**
+ * Single pass cleaner of the text appended to {@link LangDetector}.
+ *
+ * It produces the same text as applying, one after another,
+ * <ol>
+ * <li><code>https?://[-_.?&amp;~;+=/#0-9A-Za-z]{1,2076}</code> replaced with a space,</li>
+ * <li><code>[-_.0-9A-Za-z]{1,64}@[-_0-9A-Za-z]{1,255}[-_.0-9A-Za-z]{1,255}</code> replaced with a space,</li>
+ * <li>{@link NGram#normalize_vi(String)},</li>
+ * <li>cutting the result to the max text length and collapsing consecutive spaces,</li>
+ * </ol>
+ * without creating the intermediate strings.
+ * The source is read by index, so URLs and e-mail addresses are matched in place
+ * and only the characters that survive are appended to the output.
+ * It also counts Latin and non-Latin characters and the {@link Script}s of the output for {@link LangDetector}.
+ * <p>
+ * Scanning stops as soon as the normalized text reaches the max length.
+ * A URL or an e-mail address reads at most a few thousand characters ahead,
+ * so the cost is bounded by the max length however long the source is.
+ *
+ * @author shinsuke
+ */
+final class TextScanner {
+    private static final int MAX_URL_LENGTH = 2076;
+
+    private static final int MAX_LOCAL_LENGTH = 64;
+
+    private static final int MAX_DOMAIN_LENGTH = 255;
+
+    private CharSequence source;
+
+    private int length;
+
+    private StringBuilder out;
+
+    private int maxLength;
+
+    /** number of characters passed to the output stage, the index in the normalized text */
+    private int count;
+
+    private char pre;
+
+    /** character waiting for a following diacritical mark, or -1 */
+    private int pending;
+
+    /** true when the normalized text reached the max length, so the rest of the source is ignored */
+    private boolean done;
+
+    private int latinCount;
+
+    private int nonLatinCount;
+
+    private final int[] scriptCounts = new int[Script.values().length];
+
+    /**
+     * Clean the text and append it to the output.
+     * @param text source text
+     * @param out output
+     * @param maxLength max length of the normalized text to append
+     */
+    void scan(final CharSequence text, final StringBuilder out, final int maxLength) {
+        this.source = text;
+        this.length = text.length();
+        this.out = out;
+        this.maxLength = maxLength;
+        count = 0;
+        pre = 0;
+        pending = -1;
+        done = false;
+        try {
+            scanSource();
+            if (pending >= 0) {
+                emit((char) pending);
+            }
+        } finally {
+            this.source = null;
+            this.out = null;
+        }
+    }
+
+    /**
+     * Clear the character counts for another text.
+     */
+    void reset() {
+        latinCount = 0;
+        nonLatinCount = 0;
+        Arrays.fill(scriptCounts, 0);
+    }
+
+    /**
+     * @return the number of Latin characters appended so far
+     */
+    int getLatinCount() {
+        return latinCount;
+    }
+
+    /**
+     * @return the number of non-Latin characters appended so far
+     */
+    int getNonLatinCount() {
+        return nonLatinCount;
+    }
+
+    /**
+     * @param script script
+     * @return the number of characters of the script appended so far
+     */
+    int getScriptCount(final Script script) {
+        return scriptCounts[script.ordinal()];
+    }
+
+    private void scanSource() {
+        // start of the run of e-mail characters not appended yet, or -1
+        int run = -1;
+        int i = 0;
+        while (i < length && !done) {
+            final int urlEnd = matchUrl(i);
+            if (urlEnd > 0) {
+                run = flush(run, i);
+                normalize(' ');
+                i = urlEnd;
+                continue;
+            }
+
+            final char c = source.charAt(i);
+            if (isMailChar(c)) {
+                if (run < 0) {
+                    run = i;
+                } else if (i - run > MAX_LOCAL_LENGTH) {
+                    // the local part of an address ends within 64 characters before '@'
+                    flush(run, i - MAX_LOCAL_LENGTH);
+                    run = i - MAX_LOCAL_LENGTH;
+                }
+                ++i;
+                continue;
+            }
+
+            if (c == '@' && run >= 0) {
+                final int mailEnd = matchDomain(i + 1);
+                if (mailEnd > 0) {
+                    flush(run, Math.max(run, i - MAX_LOCAL_LENGTH));
+                    run = -1;
+                    normalize(' ');
+                    i = mailEnd;
+                    continue;
+                }
+            }
+
+            run = flush(run, i);
+            normalize(c);
+            ++i;
+        }
+        flush(run, i);
+    }
+
+    /**
+     * Append the held characters.
+     * @return -1
+     */
+    private int flush(final int start, final int end) {
+        if (start >= 0) {
+            for (int i = start; i < end && !done; ++i) {
+                normalize(source.charAt(i));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param start position in the source
+     * @return the end of the URL starting at the position, or -1 if there is no URL
+     */
+    private int matchUrl(final int start) {
+        if (source.charAt(start) != 'h' || !matches(start + 1, "ttp")) {
+            return -1;
+        }
+        int i = start + 4;
+        if (i < length && source.charAt(i) == 's') {
+            ++i;
+        }
+        if (!matches(i, "://")) {
+            return -1;
+        }
+        i += 3;
+        final int limit = Math.min(length, i + MAX_URL_LENGTH);
+        final int begin = i;
+        while (i < limit && isUrlChar(source.charAt(i))) {
+            ++i;
+        }
+        return i > begin ? i : -1;
+    }
+
+    /**
+     * Match <code>[-_0-9A-Za-z]{1,255}[-_.0-9A-Za-z]{1,255}</code> as the regex engine does,
+     * stopping at URLs that are replaced before e-mail addresses.
+     * @param start position after '@'
+     * @return the end of the domain, or -1 if it does not match
+     */
+    private int matchDomain(final int start) {
+        final int label = scanMailChars(start, false);
+        if (label == 0) {
+            return -1;
+        }
+        final int rest = scanMailChars(start + label, true);
+        if (rest > 0) {
+            return start + label + rest;
+        }
+        // backtrack one character of the first part into the second one
+        return label > 1 ? start + label : -1;
+    }
+
+    private int scanMailChars(final int start, final boolean dot) {
+        final int limit = Math.min(length, start + MAX_DOMAIN_LENGTH);
+        int i = start;
+        while (i < limit) {
+            final char c = source.charAt(i);
+            if (!isMailChar(c) || c == '.' && !dot || matchUrl(i) > 0) {
+                break;
+            }
+            ++i;
+        }
+        return i - start;
+    }
+
+    private boolean matches(final int start, final String s) {
+        if (start + s.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); ++i) {
+            if (source.charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Normalize Vietnamese, delaying every character by one to see a following diacritical mark.
+     */
+    private void normalize(final char c) {
+        if (pending >= 0) {
+            final char normalized = NGram.normalize_vi((char) pending, c);
+            if (normalized != 0) {
+                pending = -1;
+                emit(normalized);
+                return;
+            }
+            emit((char) pending);
+        }
+        pending = c;
+    }
+
+    private void emit(final char c) {
+        if (count >= maxLength) {
+            done = true;
+            return;
+        }
+        if (c != ' ' || pre != ' ') {
+            out.append(c);
+            if (NGram.isLatin(c)) {
+                ++latinCount;
+            } else if (NGram.isNonLatin(c)) {
+                ++nonLatinCount;
+            }
+            ++scriptCounts[Script.of(c).ordinal()];
+        }
+        pre = c;
+        ++count;
+    }
+
+    private static boolean isMailChar(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_' || c == '.';
+    }
+
+    private static boolean isUrlChar(final char c) {
+        return isMailChar(c) || c == '?' || c == '&' || c == '~' || c == ';' || c == '+' || c == '=' || c == '/'
+                || c == '#';
+    }
+}
@@ -20,7 +20,27 @@ public class NGram {
 
     public static final Map<Character, Character> cjkMap;
 
-    private StringBuilder grams;
+    private static final long WINDOW_MASK = (1L << (16 * N_GRAM)) - 1;
+
+    /** normalized character of every char value, see {@link #normalize(char)} */
+    private static final char[] NORMALIZED_CHARS = new char[Character.MAX_VALUE + 1];
+
+    /**
+     * class of every char value: the {@link Script} ordinal in the low bits,
+     * and the flags of {@link #isLatin(char)} and {@link #isNonLatin(char)}
+     */
+    private static final byte[] CHAR_CLASSES = new byte[Character.MAX_VALUE + 1];
+
+    private static final int SCRIPT_MASK = 0x1f;
+
+    private static final int LATIN = 0x20;
+
+    private static final int NON_LATIN = 0x40;
+
+    /** last N_GRAM characters, 16 bits each, the newest in the lowest bits */
+    private long window;
+
+    private int length;
 
     private boolean capitalword;
 
@@ -28,7 +48,15 @@ public class NGram {
      * Constructor.
      */
     public NGram() {
-        grams = new StringBuilder(" ");
+        reset();
+    }
+
+    /**
+     * Clear the n-gram buffer to cut out n-grams from another text.
+     */
+    public void reset() {
+        window = ' ';
+        length = 1;
         capitalword = false;
     }
 
@@ -38,17 +66,19 @@ public class NGram {
      */
     public void addChar(char ch) {
         ch = normalize(ch);
-        final char lastchar = grams.charAt(grams.length() - 1);
+        final char lastchar = (char) window;
         if (lastchar == ' ') {
-            grams = new StringBuilder(" ");
+            window = ' ';
+            length = 1;
             capitalword = false;
             if (ch == ' ') {
                 return;
             }
-        } else if (grams.length() >= N_GRAM) {
-            grams.deleteCharAt(0);
         }
-        grams.append(ch);
+        window = ((window << 16) | ch) & WINDOW_MASK;
+        if (length < N_GRAM) {
+            length++;
+        }
 
         if (Character.isUpperCase(ch)) {
             if (Character.isUpperCase(lastchar)) {
@@ -65,22 +95,67 @@ public class NGram {
      * @return n-Gram String (null if it is invalid)
      */
     public String get(final int n) {
-        if (capitalword) {
+        final long code = getCode(n);
+        if (code == 0) {
             return null;
         }
-        final int len = grams.length();
-        if (n < 1 || n > 3 || len < n) {
-            return null;
+        return decode(code);
+    }
+
+    /**
+     * Get n-Gram packed into a long key without creating a String.
+     * @param n length of n-gram
+     * @return packed n-gram as {@link #encode(CharSequence)} does (0 if it is invalid)
+     */
+    public long getCode(final int n) {
+        if (capitalword) {
+            return 0;
         }
-        if (n == 1) {
-            final char ch = grams.charAt(len - 1);
-            if (ch == ' ') {
-                return null;
+        if (n < 1 || n > N_GRAM || length < n) {
+            return 0;
+        }
+        if (n == 1 && (char) window == ' ') {
+            return 0;
+        }
+        final int bits = 16 * n;
+        return ((long) n << bits) | (window & ((1L << bits) - 1));
+    }
+
+    /**
+     * Pack n-gram into a long key.
+     * Each character takes 16 bits and the length is stored above them,
+     * so n-grams of different lengths never share a key.
+     * @param gram n-gram string
+     * @return packed n-gram (0 if it is invalid)
+     */
+    public static long encode(final CharSequence gram) {
+        final int len = gram.length();
+        if (len < 1 || len > N_GRAM) {
+            return 0;
+        }
+        long code = len;
+        for (int i = 0; i < len; ++i) {
+            code = (code << 16) | gram.charAt(i);
+        }
+        return code;
+    }
+
+    /**
+     * Unpack n-gram from a long key created by {@link #encode(CharSequence)}.
+     * @param code packed n-gram
+     * @return n-gram string (null if it is invalid)
+     */
+    public static String decode(final long code) {
+        for (int len = 1; len <= N_GRAM; ++len) {
+            if (code >>> (16 * len) == len) {
+                final char[] chars = new char[len];
+                for (int i = 0; i < len; ++i) {
+                    chars[i] = (char) (code >>> (16 * (len - 1 - i)));
+                }
+                return new String(chars);
             }
-            return Character.toString(ch);
-        } else {
-            return grams.substring(len - n, len);
         }
+        return null;
     }
 
     /**
@@ -88,7 +163,35 @@ public class NGram {
      * @param ch character
      * @return Normalized character
      */
-    public static char normalize(char ch) {
+    public static char normalize(final char ch) {
+        return NORMALIZED_CHARS[ch];
+    }
+
+    /**
+     * @param ch character
+     * @return true if the character is in the range of Latin alphabets
+     */
+    public static boolean isLatin(final char ch) {
+        return (CHAR_CLASSES[ch] & LATIN) != 0;
+    }
+
+    /**
+     * @param ch character
+     * @return true if the character is U+0300 or above and not in Latin Extended Additional
+     */
+    public static boolean isNonLatin(final char ch) {
+        return (CHAR_CLASSES[ch] & NON_LATIN) != 0;
+    }
+
+    /**
+     * @param ch character
+     * @return ordinal of the {@link Script} of the character
+     */
+    static int scriptOrdinal(final char ch) {
+        return CHAR_CLASSES[ch] & SCRIPT_MASK;
+    }
+
+    private static char computeNormalized(char ch) {
         final Character.UnicodeBlock block = Character.UnicodeBlock.of(ch);
         if (block == UnicodeBlock.BASIC_LATIN) {
             if (ch < 'A' || (ch < 'a' && ch > 'Z') || ch > 'z') {
@@ -155,6 +258,27 @@ public class NGram {
         return buf.toString();
     }
 
+    /**
+     * Normalizer for Vietnamese on a single pair of characters.
+     * @param ch alphabet
+     * @param dmark character following the alphabet
+     * @return U+1Exx character for Alphabet + Diacritical Mark(U+03xx), or 0 if they are not such a pair
+     */
+    public static char normalize_vi(final char ch, final char dmark) {
+        if (dmark < '\u0300' || dmark > '\u0323') {
+            return 0;
+        }
+        final int mark = DMARK_CLASS.indexOf(dmark);
+        if (mark < 0) {
+            return 0;
+        }
+        final int alphabet = TO_NORMALIZE_VI_CHARS.indexOf(ch);
+        if (alphabet < 0) {
+            return 0;
+        }
+        return NORMALIZED_VI_CHARS[mark].charAt(alphabet);
+    }
+
     private static final String[] NORMALIZED_VI_CHARS = {
             Messages.getString("NORMALIZED_VI_CHARS_0300"),
             Messages.getString("NORMALIZED_VI_CHARS_0301"),
@@ -308,6 +432,18 @@ public class NGram {
                 cjkMap.put(cjk_list.charAt(i), representative);
             }
         }
+
+        for (int i = 0; i <= Character.MAX_VALUE; ++i) {
+            final char ch = (char) i;
+            NORMALIZED_CHARS[i] = computeNormalized(ch);
+            int charClass = Script.compute(ch).ordinal();
+            if (ch <= 'z' && ch >= 'A') {
+                charClass |= LATIN;
+            } else if (ch >= '\u0300' && UnicodeBlock.of(ch) != UnicodeBlock.LATIN_EXTENDED_ADDITIONAL) {
+                charClass |= NON_LATIN;
+            }
+            CHAR_CLASSES[i] = (byte) charClass;
+        }
     }
 
 }
@@ -0,0 +1,128 @@
+package org.codelibs.elasticsearch.langfield.detect.util;
+
+import java.lang.Character.UnicodeScript;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writing systems of the bundled language profiles.
+ *
+ * Every char value is classified once into the character table of
+ * {@link NGram}, so counting the scripts of a text costs an array lookup
+ * per character.
+ * {@link #NONE} is for digits, punctuation, spaces and marks shared by all scripts,
+ * and {@link #OTHER} is for letters of scripts no bundled profile uses.
+ * Users don't use this class directly.
+ * @author shinsuke
+ */
+public enum Script {
+    NONE, //
+    OTHER, //
+    LATIN("ca", "cs", "da", "de", "en", "es", "et", "fi", "fr", "hr", "hu", "id", "it", "lt", "lv", "nl", "no", "pl", "pt",
+            "ro", "sq", "sv", "tl", "tr", "vi"), //
+    CYRILLIC("bg", "mk", "ru", "uk"), //
+    GREEK("el"), //
+    ARABIC("ar", "fa", "ur"), //
+    HEBREW("he"), //
+    DEVANAGARI("hi"), //
+    BENGALI("bn"), //
+    GURMUKHI("pa"), //
+    GUJARATI("gu"), //
+    TAMIL("ta"), //
+    TELUGU("te"), //
+    MALAYALAM("ml"), //
+    SINHALA("si"), //
+    THAI("th"), //
+    HANGUL("ko"), //
+    KANA("ja"), //
+    HAN("ja", "ko", "zh-cn", "zh-tw");
+
+    private static final Script[] VALUES = values();
+
+    private static final Set<String> KNOWN_LANGUAGES = new HashSet<>();
+
+    static {
+        for (final Script script : VALUES) {
+            KNOWN_LANGUAGES.addAll(script.languages);
+        }
+    }
+
+    private final Set<String> languages;
+
+    Script(final String... languages) {
+        this.languages = new HashSet<>(Arrays.asList(languages));
+    }
+
+    /**
+     * @param ch character
+     * @return script of the character
+     */
+    public static Script of(final char ch) {
+        return VALUES[NGram.scriptOrdinal(ch)];
+    }
+
+    /**
+     * @param lang language of a profile
+     * @return true if the language is written in this script
+     */
+    public boolean isUsedBy(final String lang) {
+        return languages.contains(lang);
+    }
+
+    /**
+     * @param lang language of a profile
+     * @return true if the scripts of the language are known, false for custom profiles
+     */
+    public static boolean isKnown(final String lang) {
+        return KNOWN_LANGUAGES.contains(lang);
+    }
+
+    static Script compute(final char ch) {
+        if (Character.isSurrogate(ch) || !Character.isLetter(ch)) {
+            return NONE;
+        }
+        switch (UnicodeScript.of(ch)) {
+        case LATIN:
+            return LATIN;
+        case CYRILLIC:
+            return CYRILLIC;
+        case GREEK:
+            return GREEK;
+        case ARABIC:
+            return ARABIC;
+        case HEBREW:
+            return HEBREW;
+        case DEVANAGARI:
+            return DEVANAGARI;
+        case BENGALI:
+            return BENGALI;
+        case GURMUKHI:
+            return GURMUKHI;
+        case GUJARATI:
+            return GUJARATI;
+        case TAMIL:
+            return TAMIL;
+        case TELUGU:
+            return TELUGU;
+        case MALAYALAM:
+            return MALAYALAM;
+        case SINHALA:
+            return SINHALA;
+        case THAI:
+            return THAI;
+        case HANGUL:
+            return HANGUL;
+        case HIRAGANA:
+        case KATAKANA:
+            return KANA;
+        case HAN:
+            return HAN;
+        case COMMON:
+        case INHERITED:
+            return NONE;
+        default:
+            return OTHER;
+        }
+    }
+}
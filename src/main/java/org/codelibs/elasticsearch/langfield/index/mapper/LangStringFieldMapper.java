@@ -22,14 +22,22 @@ package org.codelibs.elasticsearch.langfield.index.mapper;
 import static org.elasticsearch.index.mapper.TypeParsers.parseTextField;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexableField;
@@ -38,8 +46,13 @@ import org.apache.lucene.search.NormsFieldExistsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.util.BytesRef;
+import org.codelibs.elasticsearch.langfield.detect.DetectionCache;
+import org.codelibs.elasticsearch.langfield.detect.DetectionRecord;
 import org.codelibs.elasticsearch.langfield.detect.LangDetector;
 import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactoryRegistry;
+import org.codelibs.elasticsearch.langfield.stats.DetectionStats;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -47,6 +60,7 @@ import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.analysis.NamedAnalyzer;
 import org.elasticsearch.index.fielddata.IndexFieldData;
 import org.elasticsearch.index.fielddata.plain.PagedBytesIndexFieldData;
+import org.elasticsearch.index.mapper.DocumentMapper;
 import org.elasticsearch.index.mapper.DocumentMapperParser;
 import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.index.mapper.FieldNamesFieldMapper;
@@ -60,6 +74,8 @@ import org.elasticsearch.index.query.QueryShardContext;
 /** A {@link FieldMapper} for full-text fields. */
 public class LangStringFieldMapper extends FieldMapper {
 
+    private static final Logger logger = LogManager.getLogger(LangStringFieldMapper.class);
+
     public static final String CONTENT_TYPE = "langstring";
     private static final int POSITION_INCREMENT_GAP_USE_ANALYZER = -1;
 
@@ -71,6 +87,28 @@ public class LangStringFieldMapper extends FieldMapper {
 
     private static final String LANG_BASE_NAME_SETTING_KEY = "lang_base_name";
 
+    private static final String ENGINE_SETTING_KEY = "engine";
+
+    private static final String PRECISION_SETTING_KEY = "precision";
+
+    private static final String SAMPLE_WINDOWS_SETTING_KEY = "sample_windows";
+
+    private static final String SAMPLE_WINDOW_SIZE_SETTING_KEY = "sample_window_size";
+
+    private static final String MAX_TEXT_LENGTH_SETTING_KEY = "max_text_length";
+
+    private static final String TRIALS_SETTING_KEY = "trials";
+
+    private static final String ITERATION_LIMIT_SETTING_KEY = "iteration_limit";
+
+    private static final String CONVERGENCE_THRESHOLD_SETTING_KEY = "convergence_threshold";
+
+    private static final String SEED_SETTING_KEY = "seed";
+
+    private static final String PRIOR_SETTING_KEY = "prior";
+
+    private static final String DETECTION_FIELD_SETTING_KEY = "detection_field";
+
     private static final String[] SUPPORTED_LANGUAGES = new String[] { "ar",
             "bg", "bn", "ca", "cs", "da", "de", "el", "en", "es", "et", "fa",
             "fi", "fr", "gu", "he", "hi", "hr", "hu", "id", "it", "ja", "ko",
@@ -84,6 +122,29 @@ public class LangStringFieldMapper extends FieldMapper {
 
     private static final String LANG_BASE_NAME = "";
 
+    private static final String DETECTION_FIELD = "";
+
+    private static final LangDetector.Engine ENGINE = LangDetector.Engine.RANDOM_WALK;
+
+    private static final int SAMPLE_WINDOWS = 0;
+
+    private static final int SAMPLE_WINDOW_SIZE = 1000;
+
+    private static final int MAX_TEXT_LENGTH = 10000;
+
+    private static final int TRIALS = 7;
+
+    private static final int ITERATION_LIMIT = 1000;
+
+    private static final double CONVERGENCE_THRESHOLD = 0.99999;
+
+    /**
+     * @return languages detected by a langstring field without {@code lang}
+     */
+    public static String[] defaultLanguages() {
+        return SUPPORTED_LANGUAGES.clone();
+    }
+
     public static class Defaults {
         public static double FIELDDATA_MIN_FREQUENCY = 0;
         public static double FIELDDATA_MAX_FREQUENCY = Integer.MAX_VALUE;
@@ -114,6 +175,28 @@ public class LangStringFieldMapper extends FieldMapper {
 
         protected String langBaseName = LANG_BASE_NAME;
 
+        protected LangDetector.Engine engine = ENGINE;
+
+        protected LangDetectorFactory.Precision precision;
+
+        protected int sampleWindows = SAMPLE_WINDOWS;
+
+        protected int sampleWindowSize = SAMPLE_WINDOW_SIZE;
+
+        protected int maxTextLength = MAX_TEXT_LENGTH;
+
+        protected int trials = TRIALS;
+
+        protected int iterationLimit = ITERATION_LIMIT;
+
+        protected double convergenceThreshold = CONVERGENCE_THRESHOLD;
+
+        protected Long seed;
+
+        protected Map<String, Double> prior = Collections.emptyMap();
+
+        protected String detectionField = DETECTION_FIELD;
+
         public Builder(final String name) {
             super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
             builder = this;
@@ -155,8 +238,17 @@ public class LangStringFieldMapper extends FieldMapper {
             return this;
         }
 
+        /**
+         * @param supportedLanguages languages, trimmed, de-duplicated and sorted
+         *        as {@link LangDetectorFactoryRegistry} does for the factory
+         */
         public Builder supportedLanguages(final String[] supportedLanguages) {
-            this.supportedLanguages = supportedLanguages;
+            try {
+                this.supportedLanguages = LangDetectorFactoryRegistry.normalize(supportedLanguages);
+            } catch (final ElasticsearchException e) {
+                throw new MapperParsingException("[" + LANG_SETTING_KEY + "] must have a language, got "
+                        + Arrays.toString(supportedLanguages));
+            }
             return this;
         }
 
@@ -170,6 +262,91 @@ public class LangStringFieldMapper extends FieldMapper {
             return this;
         }
 
+        public Builder engine(final LangDetector.Engine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder precision(final LangDetectorFactory.Precision precision) {
+            this.precision = precision;
+            return this;
+        }
+
+        public Builder sampleWindows(final int sampleWindows) {
+            if (sampleWindows < 0) {
+                throw new MapperParsingException("[" + SAMPLE_WINDOWS_SETTING_KEY + "] must be non-negative, got " + sampleWindows);
+            }
+            this.sampleWindows = sampleWindows;
+            return this;
+        }
+
+        public Builder sampleWindowSize(final int sampleWindowSize) {
+            if (sampleWindowSize <= 0) {
+                throw new MapperParsingException("[" + SAMPLE_WINDOW_SIZE_SETTING_KEY + "] must be positive, got " + sampleWindowSize);
+            }
+            this.sampleWindowSize = sampleWindowSize;
+            return this;
+        }
+
+        public Builder maxTextLength(final int maxTextLength) {
+            if (maxTextLength <= 0) {
+                throw new MapperParsingException("[" + MAX_TEXT_LENGTH_SETTING_KEY + "] must be positive, got " + maxTextLength);
+            }
+            this.maxTextLength = maxTextLength;
+            return this;
+        }
+
+        public Builder trials(final int trials) {
+            if (trials <= 0) {
+                throw new MapperParsingException("[" + TRIALS_SETTING_KEY + "] must be positive, got " + trials);
+            }
+            this.trials = trials;
+            return this;
+        }
+
+        public Builder iterationLimit(final int iterationLimit) {
+            if (iterationLimit <= 0) {
+                throw new MapperParsingException("[" + ITERATION_LIMIT_SETTING_KEY + "] must be positive, got " + iterationLimit);
+            }
+            this.iterationLimit = iterationLimit;
+            return this;
+        }
+
+        public Builder convergenceThreshold(final double convergenceThreshold) {
+            if (!(convergenceThreshold > 0 && convergenceThreshold <= 1)) {
+                throw new MapperParsingException(
+                        "[" + CONVERGENCE_THRESHOLD_SETTING_KEY + "] must be in (0, 1], got " + convergenceThreshold);
+            }
+            this.convergenceThreshold = convergenceThreshold;
+            return this;
+        }
+
+        public Builder seed(final Long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder prior(final Map<String, Double> prior) {
+            double sum = 0;
+            for (final Map.Entry<String, Double> entry : prior.entrySet()) {
+                if (entry.getValue() < 0) {
+                    throw new MapperParsingException("[" + PRIOR_SETTING_KEY + "] must be non-negative, got " + entry.getValue()
+                            + " for [" + entry.getKey() + "]");
+                }
+                sum += entry.getValue();
+            }
+            if (!prior.isEmpty() && sum <= 0) {
+                throw new MapperParsingException("[" + PRIOR_SETTING_KEY + "] must have a positive probability");
+            }
+            this.prior = new TreeMap<>(prior);
+            return this;
+        }
+
+        public Builder detectionField(final String detectionField) {
+            this.detectionField = detectionField;
+            return this;
+        }
+
         public Builder fielddataFrequencyFilter(final double minFreq, final double maxFreq, final int minSegmentSize) {
             fieldType().setFielddataMinFrequency(minFreq);
             fieldType().setFielddataMaxFrequency(maxFreq);
@@ -188,11 +365,19 @@ public class LangStringFieldMapper extends FieldMapper {
                 fieldType.setSearchAnalyzer(new NamedAnalyzer(fieldType.searchAnalyzer(), positionIncrementGap));
                 fieldType.setSearchQuoteAnalyzer(new NamedAnalyzer(fieldType.searchQuoteAnalyzer(), positionIncrementGap));
             }
+            final List<String> langs = Arrays.asList(supportedLanguages);
+            for (final String lang : prior.keySet()) {
+                if (!langs.contains(lang)) {
+                    throw new MapperParsingException("[" + PRIOR_SETTING_KEY + "] has [" + lang + "], which is not in ["
+                            + LANG_SETTING_KEY + "]");
+                }
+            }
             setupFieldType(context);
             return new LangStringFieldMapper(
                     name, fieldType, defaultFieldType, positionIncrementGap, includeInAll,
-                    fieldSeparator, supportedLanguages, langField, langBaseName,
-                    context.indexSettings(), multiFieldsBuilder.build(this, context), copyTo);
+                    fieldSeparator, supportedLanguages, langField, langBaseName, engine,
+                    precision, sampleWindows, sampleWindowSize, maxTextLength, trials, iterationLimit, convergenceThreshold,
+                    seed, prior, detectionField, context.indexSettings(), multiFieldsBuilder.build(this, context), copyTo);
         }
     }
 
@@ -239,10 +424,74 @@ public class LangStringFieldMapper extends FieldMapper {
                 } else if (propName.equals(LANG_BASE_NAME_SETTING_KEY)) {
                     builder.langBaseName(propNode.toString());
                     iterator.remove();
+                } else if (propName.equals(ENGINE_SETTING_KEY)) {
+                    builder.engine(parseEngine(propNode.toString()));
+                    iterator.remove();
+                } else if (propName.equals(PRECISION_SETTING_KEY)) {
+                    builder.precision(parsePrecision(propNode.toString()));
+                    iterator.remove();
+                } else if (propName.equals(SAMPLE_WINDOWS_SETTING_KEY)) {
+                    builder.sampleWindows(XContentMapValues.nodeIntegerValue(propNode));
+                    iterator.remove();
+                } else if (propName.equals(SAMPLE_WINDOW_SIZE_SETTING_KEY)) {
+                    builder.sampleWindowSize(XContentMapValues.nodeIntegerValue(propNode));
+                    iterator.remove();
+                } else if (propName.equals(MAX_TEXT_LENGTH_SETTING_KEY)) {
+                    builder.maxTextLength(XContentMapValues.nodeIntegerValue(propNode));
+                    iterator.remove();
+                } else if (propName.equals(TRIALS_SETTING_KEY)) {
+                    builder.trials(XContentMapValues.nodeIntegerValue(propNode));
+                    iterator.remove();
+                } else if (propName.equals(ITERATION_LIMIT_SETTING_KEY)) {
+                    builder.iterationLimit(XContentMapValues.nodeIntegerValue(propNode));
+                    iterator.remove();
+                } else if (propName.equals(CONVERGENCE_THRESHOLD_SETTING_KEY)) {
+                    builder.convergenceThreshold(XContentMapValues.nodeDoubleValue(propNode));
+                    iterator.remove();
+                } else if (propName.equals(SEED_SETTING_KEY)) {
+                    builder.seed(propNode == null ? null : XContentMapValues.nodeLongValue(propNode));
+                    iterator.remove();
+                } else if (propName.equals(PRIOR_SETTING_KEY)) {
+                    builder.prior(parsePrior(propNode));
+                    iterator.remove();
+                } else if (propName.equals(DETECTION_FIELD_SETTING_KEY)) {
+                    builder.detectionField(propNode.toString());
+                    iterator.remove();
                 }
             }
             return builder;
         }
+
+        private static Map<String, Double> parsePrior(final Object node) {
+            if (!(node instanceof Map)) {
+                throw new MapperParsingException("[" + PRIOR_SETTING_KEY + "] must be an object of languages and probabilities, got " + node);
+            }
+            final Map<String, Double> prior = new TreeMap<>();
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) node).entrySet()) {
+                prior.put(entry.getKey().toString().trim(), XContentMapValues.nodeDoubleValue(entry.getValue()));
+            }
+            return prior;
+        }
+
+        private static LangDetector.Engine parseEngine(final String value) {
+            try {
+                return LangDetector.Engine.valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw new MapperParsingException("[" + ENGINE_SETTING_KEY + "] must be one of "
+                        + Strings.arrayToCommaDelimitedString(LangDetector.Engine.values()).toLowerCase(Locale.ROOT)
+                        + ", got " + value);
+            }
+        }
+
+        private static LangDetectorFactory.Precision parsePrecision(final String value) {
+            try {
+                return LangDetectorFactory.Precision.valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw new MapperParsingException("[" + PRECISION_SETTING_KEY + "] must be one of "
+                        + Strings.arrayToCommaDelimitedString(LangDetectorFactory.Precision.values()).toLowerCase(Locale.ROOT)
+                        + ", got " + value);
+            }
+        }
     }
 
     public static final class LangStringFieldType extends StringFieldType {
@@ -387,16 +636,34 @@ public class LangStringFieldMapper extends FieldMapper {
 
     private Boolean includeInAll;
     private int positionIncrementGap;
-    private final LangDetectorFactory langDetectorFactory;
+    private LangDetectorFactory langDetectorFactory;
     private String fieldSeparator;
     private String[] supportedLanguages;
     private String langField;
     private String langBaseName;
-    private Method parseCopyMethod;
+    private LangDetector.Engine engine;
+    private LangDetectorFactory.Precision precision;
+    private int sampleWindows;
+    private int sampleWindowSize;
+    private int maxTextLength;
+    private int trials;
+    private int iterationLimit;
+    private double convergenceThreshold;
+    private Long seed;
+    private Map<String, Double> prior;
+    private String detectionField;
+    private long cacheSeed;
+    private String[] langFieldNames;
+    private volatile CopyTargets copyTargets;
 
     protected LangStringFieldMapper(final String simpleName, final MappedFieldType fieldType, final MappedFieldType defaultFieldType,
                                 final int positionIncrementGap, final Boolean includeInAll,
                                 final String fieldSeparator, final String[] supportedLanguages, final String langField, final String langBaseName,
+                                final LangDetector.Engine engine, final LangDetectorFactory.Precision precision,
+                                final int sampleWindows, final int sampleWindowSize,
+                                final int maxTextLength, final int trials, final int iterationLimit,
+                                final double convergenceThreshold, final Long seed, final Map<String, Double> prior,
+                                final String detectionField,
                                 final Settings indexSettings, final MultiFields multiFields, final CopyTo copyTo) {
         super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
         assert fieldType.tokenized();
@@ -410,19 +677,21 @@ public class LangStringFieldMapper extends FieldMapper {
         this.supportedLanguages = supportedLanguages;
         this.langField = langField;
         this.langBaseName = langBaseName;
-
-        langDetectorFactory = LangDetectorFactory.create(supportedLanguages);
-
-        parseCopyMethod = AccessController.doPrivileged((PrivilegedAction<Method>) () -> {
-            try {
-                final Class<?> docParserClazz = FieldMapper.class.getClassLoader().loadClass("org.elasticsearch.index.mapper.DocumentParser");
-                final Method method = docParserClazz.getDeclaredMethod("parseCopy", new Class[] { String.class, ParseContext.class });
-                method.setAccessible(true);
-                return method;
-            } catch (final Exception e) {
-                throw new IllegalStateException("Failed to access DocumentParser#parseCopy(String, ParseContext).", e);
-            }
-        });
+        this.engine = engine;
+        this.precision = precision;
+        this.sampleWindows = sampleWindows;
+        this.sampleWindowSize = sampleWindowSize;
+        this.maxTextLength = maxTextLength;
+        this.trials = trials;
+        this.iterationLimit = iterationLimit;
+        this.convergenceThreshold = convergenceThreshold;
+        this.seed = seed;
+        this.prior = prior;
+        this.detectionField = detectionField;
+
+        langDetectorFactory = LangDetectorFactoryRegistry.getFactory(precision, supportedLanguages);
+        cacheSeed = cacheSeed();
+        langFieldNames = langFieldNames();
     }
 
     @Override
@@ -461,24 +730,138 @@ public class LangStringFieldMapper extends FieldMapper {
             fields.add(field);
         }
 
-        if (value != null && value.trim().length() > 0) {
+        if (value != null && hasText(value)) {
             final String lang = detectLanguage(context, value);
-            if (!LangDetector.UNKNOWN_LANG.equals(lang)) {
-                final StringBuilder langFieldBuf = new StringBuilder();
-                if (langBaseName.length() == 0) {
-                    langFieldBuf.append(fieldType().name());
+            final int langId = langId(lang);
+            if (langId >= 0) {
+                final FieldMapper mapper = copyTargets(context.docMapper()).mappers[langId];
+                if (mapper != null) {
+                    mapper.parse(context);
                 } else {
-                    langFieldBuf.append(langBaseName);
+                    parseCopy(langFieldNames[langId], context);
                 }
-                langFieldBuf.append(fieldSeparator).append(lang);
-                try {
-                    parseCopyMethod.invoke(null, new Object[] { langFieldBuf.toString(), context });
-                } catch (final Exception e) {
-                    throw new IllegalStateException(
-                            "Failed to invoke parseCopy method.", e);
+            }
+        }
+    }
+
+    /**
+     * @return index of the language in the supported languages, or -1 if it is not supported
+     */
+    private int langId(final String lang) {
+        for (int i = 0; i < supportedLanguages.length; i++) {
+            if (supportedLanguages[i].equals(lang)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return names of the fields the value is copied to, indexed by language id
+     */
+    private String[] langFieldNames() {
+        final String baseName = langBaseName.length() == 0 ? fieldType().name() : langBaseName;
+        final String[] names = new String[supportedLanguages.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = baseName + fieldSeparator + supportedLanguages[i];
+        }
+        return names;
+    }
+
+    /**
+     * Resolve the mappers of the copied fields once per mapping.
+     * A new mapping, such as one with a dynamically added field, resolves them again.
+     */
+    private CopyTargets copyTargets(final DocumentMapper docMapper) {
+        CopyTargets targets = copyTargets;
+        if (targets == null || targets.docMapper != docMapper || targets.names != langFieldNames) {
+            final String[] names = langFieldNames;
+            final FieldMapper[] mappers = new FieldMapper[names.length];
+            for (int i = 0; i < names.length; i++) {
+                final Mapper mapper = docMapper.mappers().getMapper(names[i]);
+                if (mapper instanceof FieldMapper) {
+                    mappers[i] = (FieldMapper) mapper;
                 }
             }
+            targets = new CopyTargets(docMapper, names, mappers);
+            copyTargets = targets;
         }
+        return targets;
+    }
+
+    /**
+     * Copy the value to a field without a mapper, which lets {@code DocumentParser} create it dynamically.
+     */
+    private static void parseCopy(final String field, final ParseContext context) throws IOException {
+        try {
+            PARSE_COPY.invokeExact(field, context);
+        } catch (final IOException | RuntimeException e) {
+            throw e;
+        } catch (final Throwable t) {
+            throw new IllegalStateException("Failed to invoke parseCopy method.", t);
+        }
+    }
+
+    private static final MethodHandle PARSE_COPY = AccessController.doPrivileged((PrivilegedAction<MethodHandle>) () -> {
+        try {
+            final Class<?> docParserClazz = FieldMapper.class.getClassLoader().loadClass("org.elasticsearch.index.mapper.DocumentParser");
+            final Method method = docParserClazz.getDeclaredMethod("parseCopy", new Class[] { String.class, ParseContext.class });
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (final Exception e) {
+            throw new IllegalStateException("Failed to access DocumentParser#parseCopy(String, ParseContext).", e);
+        }
+    });
+
+    private static final class CopyTargets {
+        final DocumentMapper docMapper;
+        final String[] names;
+        final FieldMapper[] mappers;
+
+        CopyTargets(final DocumentMapper docMapper, final String[] names, final FieldMapper[] mappers) {
+            this.docMapper = docMapper;
+            this.names = names;
+            this.mappers = mappers;
+        }
+    }
+
+    /**
+     * Same as <code>value.trim().length() &gt; 0</code> without copying a large value.
+     */
+    private static boolean hasText(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > ' ') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return seed of the cache keys and detection records, so that only mappers detecting with the same
+     *         languages, precision, engine and parameters share cached results and recorded languages
+     */
+    private long cacheSeed() {
+        return detectorSeed(langDetectorFactory, engine, sampleWindows, sampleWindowSize, maxTextLength, trials, iterationLimit,
+                convergenceThreshold, seed, prior);
+    }
+
+    /**
+     * @param factory factory of the detector
+     * @param engine engine of the detector
+     * @return seed of a detector with the default parameters, which a field without tuning parameters matches
+     */
+    public static long detectorSeed(final LangDetectorFactory factory, final LangDetector.Engine engine) {
+        return detectorSeed(factory, engine, SAMPLE_WINDOWS, SAMPLE_WINDOW_SIZE, MAX_TEXT_LENGTH, TRIALS, ITERATION_LIMIT,
+                CONVERGENCE_THRESHOLD, null, Collections.emptyMap());
+    }
+
+    private static long detectorSeed(final LangDetectorFactory factory, final LangDetector.Engine engine, final int sampleWindows,
+            final int sampleWindowSize, final int maxTextLength, final int trials, final int iterationLimit,
+            final double convergenceThreshold, final Long seed, final Map<String, Double> prior) {
+        return DetectionCache.hash(factory.getLangList() + "/" + factory.getPrecision() + "/" + engine + "/" + sampleWindows + "/"
+                + sampleWindowSize + "/" + maxTextLength + "/" + trials + "/" + iterationLimit + "/" + convergenceThreshold + "/"
+                + seed + "/" + prior, 0);
     }
 
     private String detectLanguage(final ParseContext context,
@@ -504,16 +887,107 @@ public class LangStringFieldMapper extends FieldMapper {
                 }
             }
         }
+        if (detectionField.length() > 0) {
+            final String lang = recordedLanguage(context, text);
+            if (lang != null) {
+                return lang;
+            }
+        }
+        final DetectionStats stats = DetectionStats.getInstance();
+        final long startTime = System.nanoTime();
+        LangDetector langDetector = null;
         try {
-            final LangDetector langDetector = langDetectorFactory.getLangDetector();
+            langDetector = langDetectorFactory.getThreadLangDetector();
+            langDetector.setEngine(engine);
+            if (sampleWindows > 0) {
+                langDetector.setSampling(sampleWindows, sampleWindowSize);
+            }
+            langDetector.setMaxTextLength(maxTextLength);
+            langDetector.setTrials(trials);
+            langDetector.setIterationLimit(iterationLimit);
+            langDetector.setConvergenceThreshold(convergenceThreshold);
+            if (seed != null) {
+                langDetector.setSeed(seed);
+            }
+            if (!prior.isEmpty()) {
+                langDetector.setPriorMap(prior);
+            }
             langDetector.append(text);
-            return langDetector.detect();
+
+            final DetectionCache cache = DetectionCache.getInstance();
+            final boolean useCache = cache.isEnabled();
+            long key1 = 0;
+            long key2 = 0;
+            if (useCache) {
+                key1 = DetectionCache.hash(langDetector.getText(), cacheSeed);
+                key2 = DetectionCache.hash(langDetector.getText(), ~cacheSeed);
+                final String cached = cache.get(key1, key2);
+                if (cached != null) {
+                    stats.onCacheHit(cached, LangDetector.UNKNOWN_LANG.equals(cached));
+                    return cached;
+                }
+            }
+
+            final String lang = langDetector.detect();
+            stats.onDetection(lang, System.nanoTime() - startTime, langDetector.getIterations(),
+                    LangDetector.UNKNOWN_LANG.equals(lang));
+            if (useCache) {
+                cache.put(key1, key2, lang);
+            }
+            return lang;
         } catch (final Exception e) {
-            // TODO logger
+            if (langDetector != null && langDetector.getNGramSize() == 0) {
+                stats.onNoFeatures(System.nanoTime() - startTime);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("No features to detect a language in [" + name() + "].", e);
+                }
+            } else {
+                stats.onError(System.nanoTime() - startTime);
+                logger.warn("Failed to detect a language in [" + name() + "].", e);
+            }
             return LangDetector.UNKNOWN_LANG;
         }
     }
 
+    /**
+     * @return language recorded in the detection field for the same text,
+     *         or null if there is no such record
+     */
+    private String recordedLanguage(final ParseContext context, final String text) {
+        String record = null;
+        final IndexableField[] recordFields = context.doc().getFields(detectionField);
+        if (recordFields != null) {
+            for (final IndexableField recordField : recordFields) {
+                final BytesRef bytes = recordField.binaryValue();
+                if (bytes != null) {
+                    record = bytes.utf8ToString();
+                    break;
+                }
+            }
+        }
+        if (record == null) {
+            // the detection field comes after this field in the source
+            try {
+                record = SourceRecords.get(context, detectionField);
+            } catch (final Exception e) {
+                logger.warn("Failed to read [" + detectionField + "] for [" + name() + "].", e);
+                return null;
+            }
+        }
+        final String lang = DetectionRecord.parse(record, cacheSeed, text);
+        if (lang == null) {
+            return null;
+        }
+        if (LangDetector.UNKNOWN_LANG.equals(lang)) {
+            return lang;
+        }
+        return langId(lang) >= 0 ? lang : null;
+    }
+
+    String detectionField() {
+        return detectionField;
+    }
+
     @Override
     protected String contentType() {
         return CONTENT_TYPE;
@@ -525,8 +999,23 @@ public class LangStringFieldMapper extends FieldMapper {
         this.includeInAll = ((LangStringFieldMapper) mergeWith).includeInAll;
         this.fieldSeparator = ((LangStringFieldMapper) mergeWith).fieldSeparator;
         this.supportedLanguages = ((LangStringFieldMapper) mergeWith).supportedLanguages;
+        this.langDetectorFactory = ((LangStringFieldMapper) mergeWith).langDetectorFactory;
         this.langField = ((LangStringFieldMapper) mergeWith).langField;
         this.langBaseName = ((LangStringFieldMapper) mergeWith).langBaseName;
+        this.engine = ((LangStringFieldMapper) mergeWith).engine;
+        this.precision = ((LangStringFieldMapper) mergeWith).precision;
+        this.sampleWindows = ((LangStringFieldMapper) mergeWith).sampleWindows;
+        this.sampleWindowSize = ((LangStringFieldMapper) mergeWith).sampleWindowSize;
+        this.maxTextLength = ((LangStringFieldMapper) mergeWith).maxTextLength;
+        this.trials = ((LangStringFieldMapper) mergeWith).trials;
+        this.iterationLimit = ((LangStringFieldMapper) mergeWith).iterationLimit;
+        this.convergenceThreshold = ((LangStringFieldMapper) mergeWith).convergenceThreshold;
+        this.seed = ((LangStringFieldMapper) mergeWith).seed;
+        this.prior = ((LangStringFieldMapper) mergeWith).prior;
+        this.detectionField = ((LangStringFieldMapper) mergeWith).detectionField;
+        this.cacheSeed = ((LangStringFieldMapper) mergeWith).cacheSeed;
+        this.langFieldNames = ((LangStringFieldMapper) mergeWith).langFieldNames;
+        this.copyTargets = null;
     }
 
     @Override
@@ -584,5 +1073,43 @@ public class LangStringFieldMapper extends FieldMapper {
         if (includeDefaults || !langField.equals(LANG_BASE_NAME)) {
             builder.field(LANG_BASE_NAME_SETTING_KEY, langBaseName);
         }
+        if (includeDefaults || engine != ENGINE) {
+            builder.field(ENGINE_SETTING_KEY, engine.name().toLowerCase(Locale.ROOT));
+        }
+        if (precision != null) {
+            builder.field(PRECISION_SETTING_KEY, precision.name().toLowerCase(Locale.ROOT));
+        } else if (includeDefaults) {
+            builder.field(PRECISION_SETTING_KEY,
+                    LangDetectorFactoryRegistry.getDefaultPrecision().name().toLowerCase(Locale.ROOT));
+        }
+        if (includeDefaults || sampleWindows != SAMPLE_WINDOWS) {
+            builder.field(SAMPLE_WINDOWS_SETTING_KEY, sampleWindows);
+        }
+        if (includeDefaults || sampleWindowSize != SAMPLE_WINDOW_SIZE) {
+            builder.field(SAMPLE_WINDOW_SIZE_SETTING_KEY, sampleWindowSize);
+        }
+        if (includeDefaults || maxTextLength != MAX_TEXT_LENGTH) {
+            builder.field(MAX_TEXT_LENGTH_SETTING_KEY, maxTextLength);
+        }
+        if (includeDefaults || trials != TRIALS) {
+            builder.field(TRIALS_SETTING_KEY, trials);
+        }
+        if (includeDefaults || iterationLimit != ITERATION_LIMIT) {
+            builder.field(ITERATION_LIMIT_SETTING_KEY, iterationLimit);
+        }
+        if (includeDefaults || convergenceThreshold != CONVERGENCE_THRESHOLD) {
+            builder.field(CONVERGENCE_THRESHOLD_SETTING_KEY, convergenceThreshold);
+        }
+        if (seed != null) {
+            builder.field(SEED_SETTING_KEY, seed.longValue());
+        } else if (includeDefaults) {
+            builder.nullField(SEED_SETTING_KEY);
+        }
+        if (includeDefaults || !prior.isEmpty()) {
+            builder.field(PRIOR_SETTING_KEY, prior);
+        }
+        if (includeDefaults || !detectionField.equals(DETECTION_FIELD)) {
+            builder.field(DETECTION_FIELD_SETTING_KEY, detectionField);
+        }
     }
 }
@@ -0,0 +1,159 @@
+package org.codelibs.elasticsearch.langfield.index.mapper;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.SourceToParse;
+
+/**
+ * Detection records of the document parsed on the current thread.
+ *
+ * The first langstring field that asks for its record reads the records of
+ * all langstring fields of the mapping in one scan of the source, and the
+ * other fields of the same document reuse them. The document and the mapping
+ * are only weakly referenced, so a thread does not keep them alive.
+ *
+ * @author shinsuke
+ */
+final class SourceRecords {
+
+    private static final ThreadLocal<SourceRecords> CURRENT = ThreadLocal.withInitial(SourceRecords::new);
+
+    private WeakReference<DocumentMapper> docMapperRef = new WeakReference<>(null);
+
+    private WeakReference<SourceToParse> sourceRef = new WeakReference<>(null);
+
+    private String[] fields = new String[0];
+
+    private String[][] paths = new String[0][];
+
+    private String[] values = new String[0];
+
+    private SourceRecords() {
+    }
+
+    /**
+     * @param context context of the document
+     * @param field detection field of a langstring field
+     * @return value of the detection field in the source, or null if it is not a string
+     * @throws IOException if the source cannot be read
+     */
+    static String get(final ParseContext context, final String field) throws IOException {
+        return CURRENT.get().value(context, field);
+    }
+
+    private String value(final ParseContext context, final String field) throws IOException {
+        final SourceToParse source = context.sourceToParse();
+        if (source == null || source.source() == null) {
+            return null;
+        }
+        final DocumentMapper docMapper = context.docMapper();
+        if (docMapperRef.get() != docMapper) {
+            setFields(detectionFields(docMapper));
+            docMapperRef = new WeakReference<>(docMapper);
+        }
+        int index = indexOf(field);
+        if (index < 0) {
+            // a field that is not in the mapping yet
+            final String[] newFields = Arrays.copyOf(fields, fields.length + 1);
+            newFields[fields.length] = field;
+            setFields(newFields);
+            index = fields.length - 1;
+        }
+        if (sourceRef.get() != source) {
+            sourceRef = new WeakReference<>(source);
+            scan(source);
+        }
+        return values[index];
+    }
+
+    private static String[] detectionFields(final DocumentMapper docMapper) {
+        final List<String> detectionFields = new ArrayList<>();
+        for (final Mapper mapper : docMapper.mappers()) {
+            if (mapper instanceof LangStringFieldMapper) {
+                final String detectionField = ((LangStringFieldMapper) mapper).detectionField();
+                if (detectionField.length() > 0 && !detectionFields.contains(detectionField)) {
+                    detectionFields.add(detectionField);
+                }
+            }
+        }
+        return detectionFields.toArray(new String[detectionFields.size()]);
+    }
+
+    private void setFields(final String[] newFields) {
+        fields = newFields;
+        paths = new String[newFields.length][];
+        for (int i = 0; i < newFields.length; i++) {
+            paths[i] = Strings.tokenizeToStringArray(newFields[i], ".");
+        }
+        values = new String[newFields.length];
+        sourceRef = new WeakReference<>(null);
+    }
+
+    private int indexOf(final String field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void scan(final SourceToParse source) throws IOException {
+        Arrays.fill(values, null);
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, LoggingDeprecationHandler.INSTANCE,
+                source.source(), source.getXContentType())) {
+            if (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+                final boolean[] active = new boolean[paths.length];
+                Arrays.fill(active, true);
+                scanObject(parser, 0, active, paths.length);
+            }
+        }
+    }
+
+    /**
+     * Read the strings at the active paths in the current object, skipping all other objects and arrays.
+     *
+     * @return number of paths not read yet
+     */
+    private int scanObject(final XContentParser parser, final int depth, final boolean[] active, int remaining) throws IOException {
+        while (remaining > 0 && parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            final String name = parser.currentName();
+            final XContentParser.Token token = parser.nextToken();
+            boolean[] nested = null;
+            for (int i = 0; i < paths.length; i++) {
+                if (!active[i] || values[i] != null || !paths[i][depth].equals(name)) {
+                    continue;
+                }
+                if (paths[i].length == depth + 1) {
+                    if (token == XContentParser.Token.VALUE_STRING) {
+                        values[i] = parser.text();
+                        remaining--;
+                    }
+                } else if (token == XContentParser.Token.START_OBJECT) {
+                    if (nested == null) {
+                        nested = new boolean[paths.length];
+                    }
+                    nested[i] = true;
+                }
+            }
+            if (nested != null) {
+                remaining = scanObject(parser, depth + 1, nested, remaining);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return remaining;
+    }
+}
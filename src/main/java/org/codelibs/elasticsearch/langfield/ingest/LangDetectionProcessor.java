@@ -0,0 +1,135 @@
+package org.codelibs.elasticsearch.langfield.ingest;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.langfield.detect.DetectionRecord;
+import org.codelibs.elasticsearch.langfield.detect.LangDetector;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactoryRegistry;
+import org.codelibs.elasticsearch.langfield.index.mapper.LangStringFieldMapper;
+import org.codelibs.elasticsearch.langfield.stats.DetectionStats;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+/**
+ * Processor that detects the language of a field once and records it with the
+ * fingerprint of the detector settings and the text in the source, see {@link DetectionRecord}.
+ * A langstring field whose {@code detection_field} points to the target field
+ * uses the recorded language, so replicas, updates and reindexing do not detect it again.
+ * The processor detects with the default parameters of a langstring field, so a field
+ * with other languages, precision, engine or tuning parameters detects the language itself.
+ *
+ * @author shinsuke
+ */
+public final class LangDetectionProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "langfield";
+
+    private static final Logger logger = LogManager.getLogger(LangDetectionProcessor.class);
+
+    private final String field;
+
+    private final String targetField;
+
+    private final LangDetectorFactory langDetectorFactory;
+
+    private final LangDetector.Engine engine;
+
+    private final long settings;
+
+    private final boolean ignoreMissing;
+
+    LangDetectionProcessor(final String tag, final String field, final String targetField, final LangDetectorFactory langDetectorFactory,
+            final LangDetector.Engine engine, final boolean ignoreMissing) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.langDetectorFactory = langDetectorFactory;
+        this.engine = engine;
+        this.settings = LangStringFieldMapper.detectorSeed(langDetectorFactory, engine);
+        this.ignoreMissing = ignoreMissing;
+    }
+
+    @Override
+    public IngestDocument execute(final IngestDocument ingestDocument) {
+        final String value = ingestDocument.getFieldValue(field, String.class, ignoreMissing);
+        if (value == null) {
+            if (ignoreMissing) {
+                return ingestDocument;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot detect a language.");
+        }
+        ingestDocument.setFieldValue(targetField, DetectionRecord.format(detectLanguage(value), settings, value));
+        return ingestDocument;
+    }
+
+    private String detectLanguage(final String text) {
+        final DetectionStats stats = DetectionStats.getInstance();
+        final long startTime = System.nanoTime();
+        LangDetector langDetector = null;
+        try {
+            langDetector = langDetectorFactory.getThreadLangDetector();
+            langDetector.setEngine(engine);
+            langDetector.append(text);
+            final String lang = langDetector.detect();
+            stats.onDetection(lang, System.nanoTime() - startTime, langDetector.getIterations(),
+                    LangDetector.UNKNOWN_LANG.equals(lang));
+            return lang;
+        } catch (final Exception e) {
+            if (langDetector != null && langDetector.getNGramSize() == 0) {
+                stats.onNoFeatures(System.nanoTime() - startTime);
+            } else {
+                stats.onError(System.nanoTime() - startTime);
+                logger.warn("Failed to detect a language in [" + field + "].", e);
+            }
+            return LangDetector.UNKNOWN_LANG;
+        }
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        @Override
+        public LangDetectionProcessor create(final Map<String, Processor.Factory> registry, final String processorTag,
+                final Map<String, Object> config) throws Exception {
+            final String field = ConfigurationUtils.readStringProperty(TYPE, processorTag, config, "field");
+            final String targetField = ConfigurationUtils.readStringProperty(TYPE, processorTag, config, "target_field",
+                    field + "_detection");
+            final List<String> langs = ConfigurationUtils.readOptionalList(TYPE, processorTag, config, "lang");
+            final String engineName = ConfigurationUtils.readStringProperty(TYPE, processorTag, config, "engine",
+                    LangDetector.Engine.RANDOM_WALK.name().toLowerCase(Locale.ROOT));
+            final String precisionName = ConfigurationUtils.readOptionalStringProperty(TYPE, processorTag, config, "precision");
+            final boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, processorTag, config, "ignore_missing", false);
+
+            final LangDetector.Engine engine;
+            try {
+                engine = LangDetector.Engine.valueOf(engineName.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, processorTag, "engine",
+                        "must be random_walk or deterministic, got " + engineName);
+            }
+            LangDetectorFactory.Precision precision = null;
+            if (precisionName != null) {
+                try {
+                    precision = LangDetectorFactory.Precision.valueOf(precisionName.toUpperCase(Locale.ROOT));
+                } catch (final IllegalArgumentException e) {
+                    throw ConfigurationUtils.newConfigurationException(TYPE, processorTag, "precision",
+                            "must be double, float, log16 or log8, got " + precisionName);
+                }
+            }
+            final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(precision, langs == null || langs.isEmpty()
+                    ? LangStringFieldMapper.defaultLanguages() : langs.toArray(new String[langs.size()]));
+            return new LangDetectionProcessor(processorTag, field, targetField, factory, engine, ignoreMissing);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.codelibs.elasticsearch.langfield.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import java.io.IOException;
+
+import org.codelibs.elasticsearch.langfield.action.LangFieldStatsAction;
+import org.codelibs.elasticsearch.langfield.action.LangFieldStatsRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions.NodesResponseRestListener;
+
+/**
+ * Returns the language detection statistics of nodes:
+ * {@code GET _nodes/langfield/stats} or {@code GET _nodes/{nodeId}/langfield/stats}.
+ */
+public class RestLangFieldStatsAction extends BaseRestHandler {
+
+    public RestLangFieldStatsAction(final Settings settings, final RestController controller) {
+        super(settings);
+        controller.registerHandler(GET, "/_nodes/langfield/stats", this);
+        controller.registerHandler(GET, "/_nodes/{nodeId}/langfield/stats", this);
+    }
+
+    @Override
+    public String getName() {
+        return "langfield_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(final RestRequest request, final NodeClient client) throws IOException {
+        final String[] nodesIds = Strings.splitStringByCommaToArray(request.param("nodeId"));
+        final LangFieldStatsRequest statsRequest = new LangFieldStatsRequest(nodesIds);
+        statsRequest.timeout(request.param("timeout"));
+        return channel -> client.execute(LangFieldStatsAction.INSTANCE, statsRequest, new NodesResponseRestListener<>(channel));
+    }
+}
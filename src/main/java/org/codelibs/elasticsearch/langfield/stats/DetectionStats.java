@@ -0,0 +1,161 @@
+package org.codelibs.elasticsearch.langfield.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide statistics of language detection.
+ *
+ * Mappers are created per index and have no access to node services,
+ * so the counters are kept in a single instance shared by all mappers on
+ * the node, like {@link org.codelibs.elasticsearch.langfield.detect.LangDetectorFactoryRegistry}.
+ *
+ * @author shinsuke
+ */
+public final class DetectionStats {
+    private static final DetectionStats INSTANCE = new DetectionStats();
+
+    private final Histogram latency = new Histogram();
+
+    private final Rate rate = new Rate();
+
+    private final Histogram iterations = new Histogram();
+
+    private final LongAdder cached = new LongAdder();
+
+    private final LongAdder unknowns = new LongAdder();
+
+    private final LongAdder noFeatures = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final ConcurrentMap<String, LongAdder> languages = new ConcurrentHashMap<>();
+
+    DetectionStats() {
+    }
+
+    public static DetectionStats getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a detection that returned a language or unknown.
+     *
+     * @param lang detected language
+     * @param nanos time spent in nanoseconds
+     * @param iteration number of iterations until the probabilities converged
+     * @param unknown true if no language was probable enough
+     */
+    public void onDetection(final String lang, final long nanos, final int iteration, final boolean unknown) {
+        latency.record(nanos);
+        rate.mark();
+        iterations.record(iteration);
+        countLanguage(lang, unknown);
+    }
+
+    /**
+     * Record a detection answered by the cache. The latency and iterations
+     * only describe detections that ran.
+     *
+     * @param lang cached language
+     * @param unknown true if the cached result is unknown
+     */
+    public void onCacheHit(final String lang, final boolean unknown) {
+        cached.increment();
+        rate.mark();
+        countLanguage(lang, unknown);
+    }
+
+    private void countLanguage(final String lang, final boolean unknown) {
+        if (unknown) {
+            unknowns.increment();
+        } else {
+            languages.computeIfAbsent(lang, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Record a detection that failed because the text has no known n-grams.
+     *
+     * @param nanos time spent in nanoseconds
+     */
+    public void onNoFeatures(final long nanos) {
+        latency.record(nanos);
+        rate.mark();
+        noFeatures.increment();
+    }
+
+    /**
+     * Record a detection that failed with an unexpected error.
+     *
+     * @param nanos time spent in nanoseconds
+     */
+    public void onError(final long nanos) {
+        latency.record(nanos);
+        rate.mark();
+        errors.increment();
+    }
+
+    /**
+     * @return the number of detections, including failed ones and cache hits
+     */
+    public long getCount() {
+        return latency.count() + cached.sum();
+    }
+
+    /**
+     * @return the number of detections answered by the cache
+     */
+    public long getCachedCount() {
+        return cached.sum();
+    }
+
+    /**
+     * @return detections per second over about the last minute
+     */
+    public double getRate() {
+        return rate.get();
+    }
+
+    public long getTimeInNanos() {
+        return latency.sum();
+    }
+
+    public long getLatencyPercentile(final double percentile) {
+        return latency.percentile(percentile);
+    }
+
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    public long getIterationsPercentile(final double percentile) {
+        return iterations.percentile(percentile);
+    }
+
+    public long getUnknownCount() {
+        return unknowns.sum();
+    }
+
+    public long getNoFeaturesCount() {
+        return noFeatures.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @return detected languages and their counts, sorted by language
+     */
+    public Map<String, Long> getLanguageCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (final Map.Entry<String, LongAdder> entry : languages.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+}
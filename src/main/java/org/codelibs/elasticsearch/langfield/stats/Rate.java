@@ -0,0 +1,88 @@
+package org.codelibs.elasticsearch.langfield.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent one-minute exponentially weighted moving average of events per second.
+ *
+ * Events are counted in a {@link LongAdder} and folded into the average
+ * every {@value #INTERVAL_SECONDS} seconds, like the load average of Unix,
+ * so the rate follows the current load instead of the lifetime mean.
+ * Intervals are folded lazily by the thread that records or reads after
+ * they end, and idle intervals count as no events.
+ *
+ * @author shinsuke
+ */
+public final class Rate {
+    static final int INTERVAL_SECONDS = 5;
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(INTERVAL_SECONDS);
+
+    private static final double ALPHA = 1 - Math.exp(-INTERVAL_SECONDS / 60.0);
+
+    // the average decays below 1e-20 of its value within an hour of idle intervals
+    private static final long MAX_TICKS = TimeUnit.HOURS.toSeconds(1) / INTERVAL_SECONDS;
+
+    private final LongAdder uncounted = new LongAdder();
+
+    private final AtomicLong lastTick;
+
+    private volatile boolean initialized;
+
+    private volatile double rate;
+
+    public Rate() {
+        this(System.nanoTime());
+    }
+
+    Rate(final long now) {
+        lastTick = new AtomicLong(now);
+    }
+
+    public void mark() {
+        mark(System.nanoTime());
+    }
+
+    void mark(final long now) {
+        tickIfNecessary(now);
+        uncounted.increment();
+    }
+
+    /**
+     * @return events per second over about the last minute
+     */
+    public double get() {
+        return get(System.nanoTime());
+    }
+
+    double get(final long now) {
+        tickIfNecessary(now);
+        return rate;
+    }
+
+    private void tickIfNecessary(final long now) {
+        final long oldTick = lastTick.get();
+        final long age = now - oldTick;
+        if (age < INTERVAL) {
+            return;
+        }
+        final long newTick = now - age % INTERVAL;
+        if (lastTick.compareAndSet(oldTick, newTick)) {
+            for (long i = Math.min(age / INTERVAL, MAX_TICKS); i > 0; i--) {
+                tick();
+            }
+        }
+    }
+
+    private synchronized void tick() {
+        final double instantRate = uncounted.sumThenReset() / (double) INTERVAL_SECONDS;
+        if (initialized) {
+            rate += ALPHA * (instantRate - rate);
+        } else {
+            rate = instantRate;
+            initialized = true;
+        }
+    }
+}
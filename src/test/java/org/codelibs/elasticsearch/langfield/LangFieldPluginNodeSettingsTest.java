@@ -0,0 +1,127 @@
+package org.codelibs.elasticsearch.langfield;
+
+import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Precision;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Storage;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactoryRegistry;
+import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
+import org.elasticsearch.action.DocWriteResponse.Result;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.Settings.Builder;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs a node with non-default detector settings.
+ */
+public class LangFieldPluginNodeSettingsTest extends TestCase {
+
+    private ElasticsearchClusterRunner runner;
+
+    private String clusterName;
+
+    @Override
+    protected void setUp() throws Exception {
+        clusterName = "es-langfield-" + System.currentTimeMillis();
+        // create runner instance
+        runner = new ElasticsearchClusterRunner();
+        // create ES nodes
+        runner.onBuild(new ElasticsearchClusterRunner.Builder() {
+            @Override
+            public void build(final int number, final Builder settingsBuilder) {
+                settingsBuilder.put("langfield.detector.precision", "float");
+                settingsBuilder.put("langfield.detector.storage", "mmap");
+                settingsBuilder.putList("discovery.zen.ping.unicast.hosts",
+                        "localhost:9301-9310");
+            }
+        }).build(newConfigs().clusterName(clusterName).numOfNode(1).pluginTypes("org.codelibs.elasticsearch.langfield.LangFieldPlugin"));
+
+        // wait for yellow status
+        runner.ensureYellow();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // close runner
+        runner.close();
+        // delete all files
+        runner.clean();
+        LangDetectorFactoryRegistry.setDefaultPrecision(Precision.DOUBLE);
+        LangDetectorFactoryRegistry.setStorage(Storage.HEAP);
+        LangDetectorFactoryRegistry.setMapDirectory(null);
+    }
+
+    public void test_detectorSettings() throws Exception {
+        assertEquals(Precision.FLOAT, LangDetectorFactoryRegistry.getDefaultPrecision());
+        assertEquals(Storage.MMAP, LangDetectorFactoryRegistry.getStorage());
+        final Path mapDirectory = runner.node().injector().getInstance(NodeEnvironment.class).nodeDataPaths()[0].resolve("langfield");
+        assertEquals(mapDirectory, LangDetectorFactoryRegistry.getMapDirectory());
+
+        final String index = "test_index";
+        final String type = "test_type";
+
+        {
+            // create an index
+            runner.createIndex(index, (Settings) null);
+            runner.ensureYellow(index);
+
+            // create a mapping
+            final XContentBuilder mappingBuilder = XContentFactory.jsonBuilder()//
+                    .startObject()//
+                    .startObject(type)//
+                    .startObject("properties")//
+
+                    // message
+                    .startObject("message")//
+                    .field("type", "langstring")//
+                    .field("lang", "en,fr,ja")//
+                    .endObject()//
+
+                    .endObject()//
+                    .endObject()//
+                    .endObject();
+            runner.createMapping(index, type, mappingBuilder);
+        }
+
+        final String[][] messages = { { "en", "This is a pen." }, { "fr", "C'est un stylo." }, { "ja", "これはペンです。" } };
+        for (final String[] message : messages) {
+            final IndexResponse indexResponse = runner.insert(index, type, message[0],
+                    "{\"message\":\"" + message[1] + "\"}");
+            assertEquals(Result.CREATED, indexResponse.getResult());
+        }
+
+        runner.refresh();
+
+        final Client client = runner.client();
+
+        for (final String[] message : messages) {
+            final SearchResponse response = client.prepareSearch(index).setTypes(type)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .filter(QueryBuilders.existsQuery("message_" + message[0])))
+                    .execute().actionGet();
+            assertEquals(1, response.getHits().getTotalHits());
+            assertEquals(message[0], response.getHits().getHits()[0].getId());
+        }
+
+        // the tables are mapped from the node data path until the node stops
+        try (Stream<Path> files = Files.list(mapDirectory)) {
+            assertTrue(files.anyMatch(file -> file.getFileName().toString().endsWith(".bin")));
+        }
+        runner.close();
+        try (Stream<Path> files = Files.list(mapDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -2,15 +2,37 @@ package org.codelibs.elasticsearch.langfield;
 
 import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newConfigs;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.codelibs.elasticsearch.langfield.action.LangFieldNodeStats;
+import org.codelibs.elasticsearch.langfield.action.LangFieldStatsAction;
+import org.codelibs.elasticsearch.langfield.action.LangFieldStatsRequest;
+import org.codelibs.elasticsearch.langfield.action.LangFieldStatsResponse;
+import org.codelibs.elasticsearch.langfield.detect.DetectionRecord;
+import org.codelibs.elasticsearch.langfield.detect.LangDetector;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactoryRegistry;
+import org.codelibs.elasticsearch.langfield.index.mapper.LangStringFieldMapper;
 import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
 import org.elasticsearch.action.DocWriteResponse.Result;
+import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsResponse.FieldMappingMetaData;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.Settings.Builder;
+import org.elasticsearch.common.transport.TransportAddress;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.http.HttpServerTransport;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHits;
 
@@ -188,6 +210,39 @@ public class LangFieldPluginTest extends TestCase {
             assertEquals(1, searchHits.getTotalHits());
         }
 
+        {
+            final LangFieldStatsResponse response = client.execute(LangFieldStatsAction.INSTANCE, new LangFieldStatsRequest())
+                    .actionGet();
+            assertEquals(1, response.getNodes().size());
+            final LangFieldNodeStats nodeStats = response.getNodes().get(0);
+            assertTrue(nodeStats.getCount() >= 6);
+            assertEquals(nodeStats.getCacheHits(), nodeStats.getCachedCount());
+            assertTrue(nodeStats.getLanguages().get("ja") >= 1);
+            assertTrue(nodeStats.getLatencyP99() >= nodeStats.getLatencyP50());
+            assertTrue(nodeStats.getCacheMisses() >= 6);
+            assertTrue(nodeStats.getCacheSize() >= 6);
+
+            // a response read from the wire has the same stats
+            final BytesStreamOutput out = new BytesStreamOutput();
+            response.writeTo(out);
+            final LangFieldStatsResponse read = LangFieldStatsAction.INSTANCE.getResponseReader().read(out.bytes().streamInput());
+            assertEquals(1, read.getNodes().size());
+            assertEquals(nodeStats.getCount(), read.getNodes().get(0).getCount());
+            assertEquals(nodeStats.getLanguages(), read.getNodes().get(0).getLanguages());
+        }
+        {
+            final TransportAddress address = runner.node().injector().getInstance(HttpServerTransport.class).boundAddress()
+                    .publishAddress();
+            final HttpURLConnection connection = (HttpURLConnection) new URL(
+                    "http://" + address.getAddress() + ":" + address.getPort() + "/_nodes/langfield/stats").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream is = connection.getInputStream()) {
+                final String body = Streams.copyToString(new InputStreamReader(is, StandardCharsets.UTF_8));
+                assertTrue(body, body.contains("\"detection\""));
+                assertTrue(body, body.contains("\"latency_in_micros\""));
+                assertTrue(body, body.contains("\"hit_rate\""));
+            }
+        }
     }
 
     public void test_withLang() throws Exception {
@@ -276,6 +331,72 @@ public class LangFieldPluginTest extends TestCase {
 
     }
 
+    public void test_withLangList() throws Exception {
+
+        final String index = "test_index";
+        final String type = "test_type";
+
+        {
+            // create an index
+            runner.createIndex(index, (Settings) null);
+            runner.ensureYellow(index);
+
+            // create a mapping
+            final XContentBuilder mappingBuilder = XContentFactory.jsonBuilder()//
+                    .startObject()//
+                    .startObject(type)//
+                    .startObject("properties")//
+
+                    // id
+                    .startObject("id")//
+                    .field("type", "keyword")//
+                    .endObject()//
+
+                    // message
+                    .startObject("message")//
+                    .field("type", "langstring")//
+                    .field("lang", "ja, en")//
+                    .endObject()//
+
+                    .endObject()//
+                    .endObject()//
+                    .endObject();
+            runner.createMapping(index, type, mappingBuilder);
+
+            final Map<String, Object> message = getFieldMapping(index, type, "message");
+            assertEquals("en,ja", message.get("lang"));
+        }
+
+        {
+            String id = "en";
+            String message = "This is a pen.";
+            final IndexResponse indexResponse1 = runner.insert(index, type, id,
+                    "{\"id\":\"" + id + "\",\"message\":\"" + message + "\"}");
+            assertEquals(Result.CREATED, indexResponse1.getResult());
+        }
+        {
+            String id = "ja";
+            String message = "\u3053\u308c\u306f\u30da\u30f3\u3067\u3059\u3002";
+            final IndexResponse indexResponse1 = runner.insert(index, type, id,
+                    "{\"id\":\"" + id + "\",\"message\":\"" + message + "\"}");
+            assertEquals(Result.CREATED, indexResponse1.getResult());
+        }
+
+        runner.refresh();
+
+        final Client client = runner.client();
+
+        for (final String lang : new String[] { "en", "ja" }) {
+            SearchResponse response = client.prepareSearch(index).setTypes(type)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .filter(QueryBuilders.existsQuery("message_" + lang)))
+                    .execute().actionGet();
+            SearchHits searchHits = response.getHits();
+            assertEquals(lang, 1, searchHits.getTotalHits());
+        }
+
+    }
+
     public void test_withLangBaseName() throws Exception {
 
         final String index = "test_index";
@@ -301,6 +422,9 @@ public class LangFieldPluginTest extends TestCase {
                     .startObject("message")//
                     .field("type", "langstring")//
                     .field("lang_base_name", "content")//
+                    .field("engine", "deterministic")//
+                    .field("precision", "log16")//
+                    .field("sample_windows", 4)//
                     .field("lang_field", "lang")//
                     .field("index", false)//
                     .endObject()//
@@ -309,6 +433,15 @@ public class LangFieldPluginTest extends TestCase {
                     .startObject("content")//
                     .field("type", "langstring")//
                     .field("lang_field", "lang")//
+                    .field("max_text_length", 2000)//
+                    .field("trials", 3)//
+                    .field("iteration_limit", 500)//
+                    .field("convergence_threshold", 0.999)//
+                    .field("seed", 1)//
+                    .startObject("prior")//
+                    .field("en", 0.8)//
+                    .field("ja", 0.2)//
+                    .endObject()//
                     .endObject()//
 
                     // lang
@@ -320,6 +453,14 @@ public class LangFieldPluginTest extends TestCase {
                     .endObject()//
                     .endObject();
             runner.createMapping(index, type, mappingBuilder);
+
+            final Map<String, Object> content = getFieldMapping(index, type, "content");
+            assertEquals(2000, content.get("max_text_length"));
+            assertEquals(3, content.get("trials"));
+            assertEquals(500, content.get("iteration_limit"));
+            assertEquals(0.999, ((Number) content.get("convergence_threshold")).doubleValue(), 0.0);
+            assertEquals(1, ((Number) content.get("seed")).intValue());
+            assertEquals(0.8, ((Number) ((Map<?, ?>) content.get("prior")).get("en")).doubleValue(), 0.0);
         }
 
         if (!runner.indexExists(index)) {
@@ -417,4 +558,119 @@ public class LangFieldPluginTest extends TestCase {
         }
 
     }
+
+    public void test_withDetectionField() throws Exception {
+
+        final String index = "test_index";
+        final String type = "test_type";
+
+        {
+            // create an index
+            runner.createIndex(index, (Settings) null);
+            runner.ensureYellow(index);
+
+            // create a mapping
+            final XContentBuilder mappingBuilder = XContentFactory.jsonBuilder()//
+                    .startObject()//
+                    .startObject(type)//
+                    .startObject("properties")//
+
+                    // id
+                    .startObject("id")//
+                    .field("type", "keyword")//
+                    .endObject()//
+
+                    // message
+                    .startObject("message")//
+                    .field("type", "langstring")//
+                    .field("detection_field", "message_detection")//
+                    .endObject()//
+
+                    // message_detection
+                    .startObject("message_detection")//
+                    .field("type", "keyword")//
+                    .field("index", false)//
+                    .endObject()//
+
+                    .endObject()//
+                    .endObject()//
+                    .endObject();
+            runner.createMapping(index, type, mappingBuilder);
+
+            final Map<String, Object> message = getFieldMapping(index, type, "message");
+            assertEquals("message_detection", message.get("detection_field"));
+        }
+
+        final Client client = runner.client();
+        client.admin().cluster().preparePutPipeline("langfield",
+                new BytesArray("{\"processors\":[{\"langfield\":{\"field\":\"message\"}}]}"), XContentType.JSON)
+                .execute().actionGet();
+
+        {
+            String id = "pipeline";
+            String message = "This is a pen.";
+            final IndexResponse indexResponse1 = client.prepareIndex(index, type, id).setPipeline("langfield")
+                    .setSource("{\"id\":\"" + id + "\",\"message\":\"" + message + "\"}", XContentType.JSON)
+                    .execute().actionGet();
+            assertEquals(Result.CREATED, indexResponse1.getResult());
+        }
+        final long settings = LangStringFieldMapper.detectorSeed(
+                LangDetectorFactoryRegistry.getFactory(LangStringFieldMapper.defaultLanguages()), LangDetector.Engine.RANDOM_WALK);
+        {
+            // the recorded language is used instead of detecting it
+            String id = "recorded";
+            String message = "This is an apple.";
+            final IndexResponse indexResponse1 = runner.insert(index, type, id,
+                    "{\"id\":\"" + id + "\",\"message\":\"" + message + "\",\"message_detection\":\""
+                            + DetectionRecord.format("ja", settings, message) + "\"}");
+            assertEquals(Result.CREATED, indexResponse1.getResult());
+        }
+        {
+            // the record of another value is ignored
+            String id = "changed";
+            String message = "This is a dog.";
+            final IndexResponse indexResponse1 = runner.insert(index, type, id,
+                    "{\"message_detection\":\"" + DetectionRecord.format("ja", settings, "This is a cat.") + "\",\"id\":\"" + id
+                            + "\",\"message\":\"" + message + "\"}");
+            assertEquals(Result.CREATED, indexResponse1.getResult());
+        }
+        {
+            // the record made with other settings is ignored
+            String id = "settings";
+            String message = "This is a cup.";
+            final IndexResponse indexResponse1 = runner.insert(index, type, id,
+                    "{\"id\":\"" + id + "\",\"message\":\"" + message + "\",\"message_detection\":\""
+                            + DetectionRecord.format("ja", settings + 1, message) + "\"}");
+            assertEquals(Result.CREATED, indexResponse1.getResult());
+        }
+
+        runner.refresh();
+
+        assertEquals(DetectionRecord.format("en", settings, "This is a pen."),
+                client.prepareGet(index, type, "pipeline").execute().actionGet().getSourceAsMap().get("message_detection"));
+        {
+            SearchResponse response = client.prepareSearch(index).setTypes(type)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .filter(QueryBuilders.existsQuery("message_en")))
+                    .execute().actionGet();
+            SearchHits searchHits = response.getHits();
+            assertEquals(3, searchHits.getTotalHits());
+        }
+        {
+            SearchResponse response = client.prepareSearch(index).setTypes(type)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .filter(QueryBuilders.matchQuery("message_ja", "apple")))
+                    .execute().actionGet();
+            SearchHits searchHits = response.getHits();
+            assertEquals(1, searchHits.getTotalHits());
+        }
+
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getFieldMapping(final String index, final String type, final String field) {
+        final FieldMappingMetaData metaData = runner.client().admin().indices().prepareGetFieldMappings(index).setTypes(type)
+                .setFields(field).execute().actionGet().fieldMappings(index, type, field);
+        return (Map<String, Object>) metaData.sourceAsMap().get(field);
+    }
 }
@@ -0,0 +1,70 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Precision;
+import org.codelibs.elasticsearch.langfield.detect.util.LangProfile;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unit test for {@link CompiledProfiles}.
+ */
+public class CompiledProfilesTest {
+
+    @Test
+    public final void testWriteAndRead() throws Exception {
+        final String[] langs = { "en", "ja" };
+        final ObjectMapper mapper = new ObjectMapper();
+        final LangProfile[] profiles = new LangProfile[langs.length];
+        final LangDetectorFactory expected = new LangDetectorFactory();
+        for (int i = 0; i < langs.length; i++) {
+            try (InputStream is = CompiledProfilesTest.class.getResourceAsStream("/profiles/" + langs[i])) {
+                profiles[i] = mapper.readValue(is, LangProfile.class);
+            }
+            expected.addProfile(profiles[i], i, langs.length);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompiledProfiles.write(profiles, out);
+        final CompiledProfiles compiled = CompiledProfiles.read(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(compiled.contains("en"));
+        assertTrue(compiled.contains("ja"));
+        assertFalse(compiled.contains("fr"));
+
+        final NGramProbTable.Builder builder = new NGramProbTable.Builder(langs.length);
+        for (int i = 0; i < langs.length; i++) {
+            compiled.addTo(langs[i], builder, i);
+        }
+        final NGramProbTable table = builder.build(Precision.DOUBLE);
+        final NGramProbTable expectedTable = expected.getTable();
+        assertEquals(expectedTable.size(), table.size());
+        assertEquals(expectedTable.entrySize(), table.entrySize());
+        for (int row = 0; row < expectedTable.size(); row++) {
+            final int other = table.find(expectedTable.key(row));
+            for (int lang = 0; lang < langs.length; lang++) {
+                assertEquals(expectedTable.get(row, lang), table.get(other, lang), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public final void testBundled() {
+        final CompiledProfiles compiled = CompiledProfiles.load();
+        assertNotNull(compiled);
+        for (final String lang : LangDetectorTest.PROFILE_LANGS) {
+            assertTrue(lang, compiled.contains(lang));
+        }
+        // factories share the decoded profiles
+        assertSame(compiled, CompiledProfiles.load());
+    }
+}
@@ -0,0 +1,102 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link DetectionCache}.
+ */
+public class DetectionCacheTest {
+
+    @Test
+    public final void testGetPut() {
+        final DetectionCache cache = new DetectionCache();
+        assertFalse(cache.isEnabled());
+        cache.put(1, 2, "en");
+        assertNull(cache.get(1, 2));
+
+        cache.setMaxSize(100);
+        assertTrue(cache.isEnabled());
+        assertNull(cache.get(1, 2));
+        cache.put(1, 2, "en");
+        cache.put(1, 3, "fr");
+        assertEquals("en", cache.get(1, 2));
+        assertEquals("fr", cache.get(1, 3));
+        assertNull(cache.get(2, 2));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.setMaxSize(0);
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public final void testBounded() {
+        final DetectionCache cache = new DetectionCache();
+        cache.setMaxSize(1000);
+        final Random random = new Random(1);
+        final Map<Long, String> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            final long key = random.nextInt(5000);
+            final long key1 = DetectionCache.hash(String.valueOf(key), 0);
+            final String lang = cache.get(key1, key);
+            if (lang == null) {
+                cache.put(key1, key, String.valueOf(key));
+                expected.put(key, String.valueOf(key));
+            } else {
+                assertEquals(expected.get(key), lang);
+            }
+        }
+        assertTrue(String.valueOf(cache.size()), cache.size() <= 1000);
+        assertTrue(String.valueOf(cache.size()), cache.size() >= 900);
+        assertEquals(100000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public final void testFrequentSurviveScan() {
+        final DetectionCache cache = new DetectionCache();
+        cache.setMaxSize(500);
+        for (int round = 0; round < 5; round++) {
+            for (long key = 0; key < 100; key++) {
+                if (cache.get(key, key) == null) {
+                    cache.put(key, key, "en");
+                }
+            }
+        }
+        // values seen once do not push out the recurring ones
+        for (long key = 1000; key < 100000; key++) {
+            if (cache.get(key, key) == null) {
+                cache.put(key, key, "fr");
+            }
+        }
+        int hits = 0;
+        for (long key = 0; key < 100; key++) {
+            if ("en".equals(cache.get(key, key))) {
+                hits++;
+            }
+        }
+        assertTrue(String.valueOf(hits), hits >= 95);
+    }
+
+    @Test
+    public final void testHash() {
+        final String text = "This is a pen.";
+        assertEquals(DetectionCache.hash(text, 1), DetectionCache.hash(new StringBuilder(text), 1));
+        assertNotEquals(DetectionCache.hash(text, 1), DetectionCache.hash(text, 2));
+        assertNotEquals(DetectionCache.hash(text, 1), DetectionCache.hash("This is a pen!", 1));
+        assertNotEquals(DetectionCache.hash("a", 1), DetectionCache.hash("a\u0000", 1));
+        assertNotEquals(DetectionCache.hash("", 1), DetectionCache.hash("\u0000", 1));
+    }
+}
@@ -0,0 +1,36 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link DetectionRecord}.
+ */
+public class DetectionRecordTest {
+
+    private static final long SETTINGS = 0x123456789abcdefL;
+
+    @Test
+    public final void testFormatParse() {
+        final String record = DetectionRecord.format("en", SETTINGS, "This is a pen.");
+        assertTrue(record, record.matches("en:0123456789abcdef[0-9a-f]{32}"));
+        assertEquals(record, DetectionRecord.format("en", SETTINGS, "This is a pen."));
+        assertEquals("en", DetectionRecord.parse(record, SETTINGS, "This is a pen."));
+        assertEquals("zh-cn", DetectionRecord.parse(DetectionRecord.format("zh-cn", -1, "这是一支笔。"), -1, "这是一支笔。"));
+        assertEquals("unknown", DetectionRecord.parse(DetectionRecord.format("unknown", 0, ""), 0, ""));
+    }
+
+    @Test
+    public final void testParseMismatch() {
+        final String record = DetectionRecord.format("en", SETTINGS, "This is a pen.");
+        assertNull(DetectionRecord.parse(record, SETTINGS, "This is an apple."));
+        assertNull(DetectionRecord.parse(record, SETTINGS + 1, "This is a pen."));
+        assertNull(DetectionRecord.parse(null, SETTINGS, "This is a pen."));
+        assertNull(DetectionRecord.parse("en", SETTINGS, "This is a pen."));
+        assertNull(DetectionRecord.parse(record.substring(2), SETTINGS, "This is a pen."));
+        assertNull(DetectionRecord.parse(record.substring(0, record.length() - 1), SETTINGS, "This is a pen."));
+    }
+}
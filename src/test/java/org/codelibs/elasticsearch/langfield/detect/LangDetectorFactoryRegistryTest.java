@@ -0,0 +1,101 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Precision;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Storage;
+import org.elasticsearch.ElasticsearchException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link LangDetectorFactoryRegistry}.
+ */
+public class LangDetectorFactoryRegistryTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public final void testSharedFactory() {
+        final LangDetectorFactory factory1 = LangDetectorFactoryRegistry.getFactory("en", "ja", "fr");
+        final LangDetectorFactory factory2 = LangDetectorFactoryRegistry.getFactory("fr", " en", "ja", "en");
+        assertSame(factory1, factory2);
+        assertEquals(3, factory1.getLangList().size());
+        assertEquals("en", factory1.getLangList().get(0));
+
+        final LangDetectorFactory factory3 = LangDetectorFactoryRegistry.getFactory("en", "ja");
+        assertNotSame(factory1, factory3);
+
+        final LangDetector detector = factory2.getLangDetector();
+        detector.append("これはペンです。");
+        assertEquals("ja", detector.detect());
+    }
+
+    @Test
+    public final void testPrecision() {
+        final LangDetectorFactory factory1 = LangDetectorFactoryRegistry.getFactory("en", "ja");
+        final LangDetectorFactory factory2 = LangDetectorFactoryRegistry.getFactory(Precision.LOG8, "en", "ja");
+        assertNotSame(factory1, factory2);
+        assertSame(LangDetectorFactoryRegistry.getDefaultPrecision(), factory1.getPrecision());
+        assertEquals(Precision.LOG8, factory2.getPrecision());
+        assertSame(factory2, LangDetectorFactoryRegistry.getFactory(Precision.LOG8, "ja", "en"));
+
+        final LangDetector detector = factory2.getLangDetector();
+        detector.append("これはペンです。");
+        assertEquals("ja", detector.detect());
+    }
+
+    @Test
+    public final void testStorage() throws Exception {
+        final Path dir = tmpFolder.newFolder().toPath();
+        // files left by an earlier run are deleted
+        final Path stale = Files.write(dir.resolve("langfield-0-0.tmp"), new byte[1]);
+        LangDetectorFactoryRegistry.setMapDirectory(dir);
+        assertFalse(Files.exists(stale));
+        LangDetectorFactoryRegistry.setStorage(Storage.MMAP);
+        try {
+            final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory("en", "ja");
+            assertEquals(Storage.MMAP, factory.getStorage());
+
+            final LangDetector detector = factory.getLangDetector();
+            detector.append("これはペンです。");
+            assertEquals("ja", detector.detect());
+            try (Stream<Path> files = Files.list(dir)) {
+                assertTrue(files.anyMatch(file -> file.getFileName().toString().endsWith(".bin")));
+            }
+
+            LangDetectorFactoryRegistry.deleteMappedFiles();
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(0, files.count());
+            }
+            detector.append("これはペンです。");
+            assertEquals("ja", detector.detect());
+        } finally {
+            LangDetectorFactoryRegistry.setStorage(Storage.HEAP);
+            LangDetectorFactoryRegistry.setMapDirectory(null);
+        }
+        assertEquals(Storage.HEAP, LangDetectorFactoryRegistry.getFactory("en", "ja").getStorage());
+    }
+
+    @Test
+    public final void testNormalize() {
+        assertArrayEquals(new String[] { "de", "en", "zh-cn" },
+                LangDetectorFactoryRegistry.normalize("zh-cn", "en", null, "de", "", "en"));
+    }
+
+    @Test(expected = ElasticsearchException.class)
+    public final void testNoLanguages() {
+        LangDetectorFactoryRegistry.getFactory(" ");
+    }
+}
@@ -1,7 +1,12 @@
 package org.codelibs.elasticsearch.langfield.detect;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.List;
 
 import org.codelibs.elasticsearch.langfield.detect.util.LangProfile;
@@ -23,6 +28,21 @@ public class LangDetectorTest {
 
     private static final String TRAINING_JA = "\u3042 \u3042 \u3042 \u3044 \u3046 \u3048 \u3048";
 
+    static final String[] PROFILE_LANGS = { "ar", "de", "en", "es", "fr", "it", "ja", "ko", "nl", "pt", "ru", "th", "zh-cn", "zh-tw" };
+
+    static final String[][] PROFILE_TEXTS = { //
+            { "en", "This is a pen. The quick brown fox jumps over the lazy dog." }, //
+            { "fr", "C'est un stylo. Le renard brun saute par-dessus le chien paresseux." }, //
+            { "de", "Das ist ein Stift. Der schnelle braune Fuchs springt \u00fcber den faulen Hund." }, //
+            { "ja", "\u3053\u308c\u306f\u30da\u30f3\u3067\u3059\u3002" }, //
+            { "ko", "\uc774\uac83\uc740 \ud39c\uc785\ub2c8\ub2e4." }, //
+            { "zh-cn", "\u8fd9\u662f\u4e00\u652f\u7b14\u3002" }, //
+            { "zh-tw", "\u9019\u662f\u4e00\u652f\u92fc\u7b46\u3002" }, //
+            { "ru", "\u042d\u0442\u043e \u0440\u0443\u0447\u043a\u0430." }, //
+            { "ar", "\u0647\u0630\u0627 \u0642\u0644\u0645." }, //
+            { "th", "\u0e19\u0e35\u0e48\u0e04\u0e37\u0e2d\u0e1b\u0e32\u0e01\u0e01\u0e32" }, //
+    };
+
     private LangDetectorFactory langDetectorFactory;
 
     @Before
@@ -78,6 +98,249 @@ public class LangDetectorTest {
         assertEquals(detect.detect(), "ja");
     }
 
+    @Test
+    public final void testDeterministic() throws ElasticsearchException {
+        final String[] texts = { "a", "b d", "d e", "\u3042\u3042\u3042\u3042a" };
+        final String[] expected = { "en", "fr", "en", "ja" };
+        for (int i = 0; i < texts.length; i++) {
+            LangDetector detect = langDetectorFactory.getLangDetector();
+            detect.setEngine(LangDetector.Engine.DETERMINISTIC);
+            detect.append(texts[i]);
+            final List<Language> probabilities = detect.getProbabilities();
+            assertEquals(expected[i], probabilities.get(0).lang);
+
+            LangDetector detect2 = langDetectorFactory.getLangDetector();
+            detect2.setEngine(LangDetector.Engine.DETERMINISTIC);
+            detect2.append(texts[i]);
+            assertEquals(probabilities.toString(), detect2.getProbabilities().toString());
+        }
+    }
+
+    @Test
+    public final void testDeterministicWithProfiles() throws ElasticsearchException {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        for (int i = 0; i < PROFILE_TEXTS.length; i++) {
+            LangDetector detect = factory.getLangDetector();
+            detect.setEngine(LangDetector.Engine.DETERMINISTIC);
+            detect.append(PROFILE_TEXTS[i][1]);
+            assertEquals(PROFILE_TEXTS[i][0], detect.detect());
+        }
+    }
+
+    @Test
+    public final void testDetectReader() throws Exception {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        for (final LangDetector.Engine engine : LangDetector.Engine.values()) {
+            for (int i = 0; i < PROFILE_TEXTS.length; i++) {
+                LangDetector detect = factory.getLangDetector();
+                detect.setEngine(engine);
+                detect.setSeed(0);
+                assertEquals(engine.toString(), PROFILE_TEXTS[i][0], detect.detect(new StringReader(PROFILE_TEXTS[i][1])));
+
+                LangDetector detect2 = factory.getLangDetector();
+                detect2.setEngine(engine);
+                detect2.setSeed(0);
+                detect2.append(PROFILE_TEXTS[i][1]);
+                assertEquals(engine.toString(), detect2.getProbabilities().toString(), detect.getProbabilities().toString());
+            }
+        }
+    }
+
+    @Test
+    public final void testDetectReaderEarlyExit() throws Exception {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        final String sentence = PROFILE_TEXTS[0][1] + " ";
+        final int size = 1000000;
+        final int[] read = new int[1];
+        final Reader reader = new Reader() {
+            @Override
+            public int read(final char[] cbuf, final int off, final int len) {
+                if (read[0] >= size) {
+                    return -1;
+                }
+                final int length = Math.min(len, size - read[0]);
+                for (int i = 0; i < length; i++) {
+                    cbuf[off + i] = sentence.charAt((read[0] + i) % sentence.length());
+                }
+                read[0] += length;
+                return length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        LangDetector detect = factory.getLangDetector();
+        detect.setEngine(LangDetector.Engine.DETERMINISTIC);
+        detect.setMaxTextLength(size);
+        assertEquals("en", detect.detect(reader));
+        assertTrue(String.valueOf(read[0]), read[0] < size / 100);
+    }
+
+    @Test
+    public final void testDetectReaderLanguageChange() throws Exception {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        final StringBuilder buf = new StringBuilder();
+        while (buf.length() < 1024) {
+            buf.append(PROFILE_TEXTS[0][1]).append(' ');
+        }
+        buf.setLength(1024);
+        while (buf.length() < 20000) {
+            buf.append(' ').append(PROFILE_TEXTS[1][1]);
+        }
+        final String text = buf.toString();
+        for (final LangDetector.Engine engine : LangDetector.Engine.values()) {
+            final int[] read = new int[1];
+            final Reader reader = new StringReader(text) {
+                @Override
+                public int read(final char[] cbuf, final int off, final int len) throws java.io.IOException {
+                    final int length = super.read(cbuf, off, len);
+                    if (length > 0) {
+                        read[0] += length;
+                    }
+                    return length;
+                }
+            };
+            LangDetector detect = factory.getLangDetector();
+            detect.setEngine(engine);
+            detect.setSeed(0);
+            assertEquals(engine.toString(), "fr", detect.detect(reader));
+            assertTrue(String.valueOf(read[0]), read[0] > 1024);
+        }
+    }
+
+    @Test
+    public final void testDetectReaderMaxTextLength() throws Exception {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        final StringBuilder buf = new StringBuilder();
+        while (buf.length() < 5000) {
+            buf.append(PROFILE_TEXTS[0][1]).append(' ');
+        }
+        final String text = buf.toString();
+
+        LangDetector detect = factory.getLangDetector();
+        detect.setMaxTextLength(1500);
+        detect.setEarlyExitMargin(Double.POSITIVE_INFINITY);
+        detect.setSeed(0);
+        assertEquals("en", detect.detect(new StringReader(text)));
+
+        LangDetector detect2 = factory.getLangDetector();
+        detect2.setMaxTextLength(1500);
+        detect2.setSeed(0);
+        detect2.append(text);
+        assertEquals(detect2.getText().length(), detect.getText().length());
+        assertEquals(detect2.getProbabilities().toString(), detect.getProbabilities().toString());
+    }
+
+    @Test
+    public final void testSampling() throws ElasticsearchException {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        final StringBuilder buf = new StringBuilder();
+        while (buf.length() < 12000) {
+            buf.append(PROFILE_TEXTS[3][1]);
+        }
+        while (buf.length() < 42000) {
+            buf.append(PROFILE_TEXTS[0][1]).append(' ');
+        }
+        final String text = buf.toString();
+
+        LangDetector detect = factory.getLangDetector();
+        detect.setEngine(LangDetector.Engine.DETERMINISTIC);
+        detect.append(text);
+        assertEquals("ja", detect.detect());
+
+        LangDetector detect2 = factory.getLangDetector();
+        detect2.setEngine(LangDetector.Engine.DETERMINISTIC);
+        detect2.setSampling(5, 1000);
+        detect2.append(text);
+        assertEquals("en", detect2.detect());
+    }
+
+    @Test
+    public final void testScript() throws Exception {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        for (final String[] text : new String[][] { PROFILE_TEXTS[4], PROFILE_TEXTS[9] }) {
+            LangDetector detect = factory.getLangDetector();
+            detect.append(text[1] + " OK");
+            assertEquals(text[0], detect.detect());
+            assertEquals(0, detect.getIterations());
+            assertEquals(0, detect.getNGramSize());
+
+            LangDetector detect2 = factory.getLangDetector();
+            detect2.setEngine(LangDetector.Engine.DETERMINISTIC);
+            assertEquals(text[0], detect2.detect(new StringReader(text[1] + " OK")));
+            assertEquals(0, detect2.getNGramSize());
+        }
+
+        // Han is used by several languages, so n-grams decide among them
+        LangDetector detect = factory.getLangDetector();
+        detect.append(PROFILE_TEXTS[6][1]);
+        assertEquals("zh-tw", detect.detect());
+        assertTrue(detect.getNGramSize() > 0);
+    }
+
+    @Test
+    public final void testThreadLangDetector() throws ElasticsearchException {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        final LangDetectorFactory other = LangDetectorFactoryRegistry.getFactory("en", "fr");
+        final LangDetector detector = factory.getThreadLangDetector();
+        assertSame(detector, factory.getThreadLangDetector());
+        final LangDetector otherDetector = other.getThreadLangDetector();
+        assertNotSame(detector, otherDetector);
+        assertSame(otherDetector, other.getThreadLangDetector());
+        // fields alternating between factories keep their detectors
+        final LangDetector rebound = factory.getThreadLangDetector();
+        assertSame(detector, rebound);
+        assertSame(otherDetector, other.getThreadLangDetector());
+        rebound.append(PROFILE_TEXTS[0][1]);
+        assertEquals(PROFILE_TEXTS[0][0], rebound.detect());
+
+        // the least recently used detector is dropped when the pool is full
+        for (final String lang : new String[] { "de", "es", "it", "ja" }) {
+            LangDetectorFactoryRegistry.getFactory("en", lang).getThreadLangDetector();
+        }
+        assertNotSame(detector, factory.getThreadLangDetector());
+    }
+
+    @Test
+    public final void testReset() throws ElasticsearchException {
+        final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(PROFILE_LANGS);
+        final LangDetector reused = factory.getThreadLangDetector();
+        assertSame(reused, factory.getThreadLangDetector());
+        for (final LangDetector.Engine engine : LangDetector.Engine.values()) {
+            for (int i = 0; i < PROFILE_TEXTS.length; i++) {
+                LangDetector detect = factory.getLangDetector();
+                detect.setEngine(engine);
+                detect.setSeed(0);
+                detect.append(PROFILE_TEXTS[i][1]);
+
+                reused.reset();
+                reused.setEngine(engine);
+                reused.setSeed(0);
+                reused.append(PROFILE_TEXTS[i][1]);
+                assertEquals(engine.toString(), detect.getProbabilities().toString(), reused.getProbabilities().toString());
+                assertEquals(detect.getNGramSize(), reused.getNGramSize());
+                assertEquals(detect.getIterations(), reused.getIterations());
+            }
+        }
+    }
+
+    @Test
+    public final void testPrecisionWithProfiles() throws ElasticsearchException {
+        for (final LangDetectorFactory.Precision precision : LangDetectorFactory.Precision.values()) {
+            final LangDetectorFactory factory = LangDetectorFactoryRegistry.getFactory(precision, PROFILE_LANGS);
+            for (final LangDetector.Engine engine : LangDetector.Engine.values()) {
+                for (int i = 0; i < PROFILE_TEXTS.length; i++) {
+                    LangDetector detect = factory.getLangDetector();
+                    detect.setEngine(engine);
+                    detect.setSeed(0);
+                    detect.append(PROFILE_TEXTS[i][1]);
+                    assertEquals(precision + "/" + engine, PROFILE_TEXTS[i][0], detect.detect());
+                }
+            }
+        }
+    }
+
     @Test
     public final void testLangList() throws ElasticsearchException {
         List<String> langList = langDetectorFactory.getLangList();
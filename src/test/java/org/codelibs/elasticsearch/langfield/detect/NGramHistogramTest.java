@@ -0,0 +1,79 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link NGramHistogram}.
+ */
+public class NGramHistogramTest {
+
+    @Test
+    public final void testAdd() {
+        final NGramHistogram histogram = new NGramHistogram();
+        final int[] rows = { 5, 3, 5, 0, 5, 3 };
+        for (final int row : rows) {
+            histogram.add(row);
+        }
+        assertEquals(3, histogram.size());
+        assertEquals(6, histogram.total());
+        assertEquals(5, histogram.row(0));
+        assertEquals(3, histogram.count(0));
+        assertEquals(3, histogram.row(1));
+        assertEquals(2, histogram.count(1));
+        assertEquals(0, histogram.row(2));
+        assertEquals(1, histogram.count(2));
+
+        final int[] expected = { 5, 5, 5, 3, 3, 0 };
+        for (int r = 0; r < expected.length; r++) {
+            assertEquals(expected[r], histogram.sample(r));
+        }
+    }
+
+    @Test
+    public final void testGrow() {
+        final NGramHistogram histogram = new NGramHistogram();
+        for (int i = 0; i < 3; i++) {
+            for (int row = 0; row < 10000; row++) {
+                histogram.add(row * 7);
+            }
+        }
+        assertEquals(10000, histogram.size());
+        assertEquals(30000, histogram.total());
+        for (int i = 0; i < histogram.size(); i++) {
+            assertEquals(i * 7, histogram.row(i));
+            assertEquals(3, histogram.count(i));
+            assertEquals(i * 7, histogram.sample(i * 3 + 2));
+        }
+        histogram.add(7);
+        assertEquals(4, histogram.count(1));
+        assertEquals(7, histogram.sample(6));
+        assertEquals(14, histogram.sample(7));
+    }
+
+    @Test
+    public final void testClear() {
+        final NGramHistogram histogram = new NGramHistogram();
+        for (int row = 0; row < 1000; row++) {
+            histogram.add(row * 31);
+        }
+        histogram.sample(0);
+        histogram.clear();
+        assertEquals(0, histogram.size());
+        assertEquals(0, histogram.total());
+
+        final int[] rows = { 31, 5, 31 };
+        for (final int row : rows) {
+            histogram.add(row);
+        }
+        assertEquals(2, histogram.size());
+        assertEquals(3, histogram.total());
+        assertEquals(31, histogram.row(0));
+        assertEquals(2, histogram.count(0));
+        assertEquals(5, histogram.row(1));
+        assertEquals(1, histogram.count(1));
+        assertEquals(31, histogram.sample(1));
+        assertEquals(5, histogram.sample(2));
+    }
+}
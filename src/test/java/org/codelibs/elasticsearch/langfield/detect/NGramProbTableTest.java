@@ -0,0 +1,227 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Precision;
+import org.codelibs.elasticsearch.langfield.detect.LangDetectorFactory.Storage;
+import org.codelibs.elasticsearch.langfield.detect.util.NGram;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link NGramProbTable}.
+ */
+public class NGramProbTableTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public final void testBuild() {
+        final NGramProbTable.Builder builder = new NGramProbTable.Builder(3);
+        builder.add(NGram.encode("a"), 2, 0.25);
+        builder.add(NGram.encode("a"), 1, 0.5);
+        builder.add(NGram.encode("b"), 0, 0);
+        // grow beyond the initial capacity
+        for (char c = 0x3000; c < 0x4000; c++) {
+            builder.add(NGram.encode(String.valueOf(c) + c), 2, c);
+        }
+        final NGramProbTable table = builder.build(Precision.DOUBLE);
+
+        assertEquals(0x1002, table.size());
+        assertEquals(0x1002, table.entrySize());
+        assertEquals(-1, table.find(NGram.encode(" a")));
+
+        final int rowA = table.find(NGram.encode("a"));
+        assertEquals(0.0, table.get(rowA, 0), 0.0);
+        assertEquals(0.5, table.get(rowA, 1), 0.0);
+        assertEquals(0.25, table.get(rowA, 2), 0.0);
+        final double[] langProbs = new double[3];
+        table.getRow(rowA, langProbs);
+        assertEquals(0.0, langProbs[0], 0.0);
+        assertEquals(0.5, langProbs[1], 0.0);
+        assertEquals(0.25, langProbs[2], 0.0);
+
+        final int rowB = table.find(NGram.encode("b"));
+        final double[] prob = { 1, 1, 1 };
+        table.updateProb(prob, rowB, 0.5);
+        assertEquals(1.0, prob[0], 0.0);
+        assertEquals(1.0, prob[1], 0.0);
+        assertEquals(1.0, prob[2], 0.0);
+        table.updateProb(prob, rowA, 0.5);
+        assertEquals(1.0, prob[0], 0.0);
+        assertEquals(2.0, prob[1], 1e-12);
+        assertEquals(1.5, prob[2], 1e-12);
+
+        for (char c = 0x3000; c < 0x4000; c++) {
+            final int row = table.find(NGram.encode(String.valueOf(c) + c));
+            assertEquals(c, table.get(row, 2), 0.0);
+            assertEquals(String.valueOf(c) + c, NGram.decode(table.key(row)));
+        }
+
+        final double[] scores = new double[3];
+        table.addLogProbs(scores, rowA, table.logProbs(0.5));
+        assertEquals(0.0, scores[0], 0.0);
+        assertEquals(Math.log((0.5 + 0.5) / 0.5), scores[1], 1e-12);
+        assertEquals(Math.log((0.5 + 0.25) / 0.5), scores[2], 1e-12);
+    }
+
+    @Test
+    public final void testUpdateActive() {
+        final int langSize = 20;
+        for (final Precision precision : Precision.values()) {
+            final NGramProbTable.Builder builder = new NGramProbTable.Builder(langSize);
+            for (int i = 0; i < langSize; i++) {
+                builder.add(NGram.encode("a"), i, (i + 1) / 100.0);
+            }
+            final NGramProbTable table = builder.build(precision);
+            final int row = table.find(NGram.encode("a"));
+
+            final double[] expected = new double[langSize];
+            final double[] prob = new double[langSize];
+            final int[] active = { 3, 11, 19 };
+            for (final int lang : active) {
+                expected[lang] = 1;
+                prob[lang] = 1;
+            }
+            table.updateProb(expected, row, 0.5);
+            table.updateProb(prob, row, 0.5, active, active.length);
+            for (int i = 0; i < langSize; i++) {
+                assertEquals(precision + "/" + i, expected[i], prob[i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public final void testPrecision() {
+        final double[] values = { 1e-7, 3.3e-6, 0.0001, 0.0123, 0.2, 0.5 };
+        for (final Precision precision : Precision.values()) {
+            final NGramProbTable.Builder builder = new NGramProbTable.Builder(values.length);
+            for (int i = 0; i < values.length; i++) {
+                builder.add(NGram.encode("a"), i, values[i]);
+            }
+            final NGramProbTable table = builder.build(precision);
+            assertEquals(precision, table.precision());
+
+            final int row = table.find(NGram.encode("a"));
+            final double[] probs = new double[values.length];
+            table.getRow(row, probs);
+            final double tolerance;
+            switch (precision) {
+            case LOG8:
+                tolerance = 0.04;
+                break;
+            case LOG16:
+                tolerance = 0.0002;
+                break;
+            case FLOAT:
+                tolerance = 1e-7;
+                break;
+            default:
+                tolerance = 0;
+                break;
+            }
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(precision.toString(), values[i], probs[i], values[i] * tolerance);
+            }
+
+            final double[] scores = new double[values.length];
+            table.addLogProbs(scores, row, table.logProbs(0.5 / 10000));
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(precision.toString(), Math.log1p(values[i] / (0.5 / 10000)), scores[i], 0.05);
+            }
+        }
+    }
+
+    @Test
+    public final void testStorage() throws Exception {
+        LangDetectorFactoryRegistry.setMapDirectory(tmpFolder.newFolder().toPath());
+        try {
+            assertStorage();
+        } finally {
+            LangDetectorFactoryRegistry.deleteMappedFiles();
+            LangDetectorFactoryRegistry.setMapDirectory(null);
+        }
+    }
+
+    private void assertStorage() {
+        for (final Storage storage : Storage.values()) {
+            for (final Precision precision : Precision.values()) {
+                final NGramProbTable.Builder builder = new NGramProbTable.Builder(3);
+                for (char c = 0x3000; c < 0x3100; c++) {
+                    builder.add(NGram.encode(String.valueOf(c)), c % 3, 1.0 / c);
+                }
+                final NGramProbTable heap = builder.build(precision);
+                final NGramProbTable table = builder.build(precision, storage);
+                assertEquals(storage, table.storage());
+                assertEquals(heap.size(), table.size());
+                assertEquals(heap.entrySize(), table.entrySize());
+                assertEquals(-1, table.find(NGram.encode("a")));
+                for (char c = 0x3000; c < 0x3100; c++) {
+                    final int row = table.find(NGram.encode(String.valueOf(c)));
+                    assertEquals(heap.find(NGram.encode(String.valueOf(c))), row);
+                        assertEquals(String.valueOf(c), NGram.decode(table.key(row)));
+                    assertEquals(1L << (c % 3), table.languageMask(row));
+                    for (int lang = 0; lang < 3; lang++) {
+                        assertEquals(heap.get(row, lang), table.get(row, lang), 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public final void testMapStaleFile() throws Exception {
+        final byte[] bytes = new byte[4096];
+        new Random(0).nextBytes(bytes);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        final Path dir = tmpFolder.newFolder().toPath();
+        final Path file = dir.resolve("langfield-" + Long.toHexString(crc.getValue()) + "-" + bytes.length + ".bin");
+        // a stale file of the same length is replaced
+        Files.write(file, new byte[bytes.length]);
+        final ByteBuffer mapped = NGramProbTable.map(bytes, dir);
+        final byte[] content = new byte[bytes.length];
+        mapped.get(content);
+        assertArrayEquals(bytes, content);
+        assertArrayEquals(bytes, Files.readAllBytes(file));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            assertEquals(file, files.iterator().next());
+        }
+
+        // the mapping outlives the file
+        NGramProbTable.deleteMappedFiles(dir);
+        assertFalse(Files.exists(file));
+        mapped.rewind();
+        mapped.get(content);
+        assertArrayEquals(bytes, content);
+    }
+
+    @Test
+    public final void testLanguageMask() {
+        final NGramProbTable.Builder builder = new NGramProbTable.Builder(64);
+        builder.add(NGram.encode("a"), 0, 0.1);
+        builder.add(NGram.encode("a"), 5, 0.2);
+        builder.add(NGram.encode("a"), 63, 0.3);
+        builder.add(NGram.encode("b"), 7, 0.4);
+        final NGramProbTable table = builder.build(Precision.DOUBLE);
+        assertTrue(table.hasLanguageMasks());
+        assertEquals(1L | 1L << 5 | 1L << 63, table.languageMask(table.find(NGram.encode("a"))));
+        assertEquals(1L << 7, table.languageMask(table.find(NGram.encode("b"))));
+
+        final NGramProbTable.Builder wide = new NGramProbTable.Builder(65);
+        wide.add(NGram.encode("a"), 64, 0.1);
+        assertFalse(wide.build(Precision.DOUBLE).hasLanguageMasks());
+    }
+}
@@ -0,0 +1,133 @@
+package org.codelibs.elasticsearch.langfield.detect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.codelibs.elasticsearch.langfield.detect.util.NGram;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TextScanner}.
+ */
+public class TextScannerTest {
+
+    private static final Pattern URL_REGEX = Pattern.compile("https?://[-_.?&~;+=/#0-9A-Za-z]{1,2076}");
+
+    private static final Pattern MAIL_REGEX = Pattern.compile("[-_.0-9A-Za-z]{1,64}@[-_0-9A-Za-z]{1,255}[-_.0-9A-Za-z]{1,255}");
+
+    private static final String[] PIECES = { "http://", "https://", "httpx://", "http:/", "@", ".", "-", "a", "b", "Z", "0", "h", " ",
+            "  ", "?", "&", "/", ":", "e", "o", "\u0301", "\u0323", "\u00e2", "\u3042", "\u0430", "xyz.com", "foo@bar.com", "\u1ec3" };
+
+    /**
+     * Append the text with regular expressions as {@link LangDetector} did before {@link TextScanner}.
+     */
+    private static void appendWithRegex(String text, final StringBuilder out, final int maxTextLength) {
+        text = URL_REGEX.matcher(text).replaceAll(" ");
+        text = MAIL_REGEX.matcher(text).replaceAll(" ");
+        text = NGram.normalize_vi(text);
+        char pre = 0;
+        for (int i = 0; i < text.length() && i < maxTextLength; ++i) {
+            final char c = text.charAt(i);
+            if (c != ' ' || pre != ' ') {
+                out.append(c);
+            }
+            pre = c;
+        }
+    }
+
+    private static void assertScan(final String text, final int maxTextLength) {
+        final StringBuilder expected = new StringBuilder();
+        appendWithRegex(text, expected, maxTextLength);
+        final StringBuilder actual = new StringBuilder();
+        new TextScanner().scan(text, actual, maxTextLength);
+        assertEquals(text, expected.toString(), actual.toString());
+    }
+
+    @Test
+    public final void testScan() {
+        assertScan("This is a pen.", 10000);
+        assertScan("see http://www.example.com/path?q=1#top and https://example.org.", 10000);
+        assertScan("mail to foo.bar@example.co.jp or a@b, a@bc, a@b.c and x@@y.", 10000);
+        assertScan("a@b@c.com", 10000);
+        assertScan("user@http://example.com", 10000);
+        assertScan("abchttp://x.com@foo.com", 10000);
+        assertScan("Vie\u0302\u0323t Nam a\u0301 o\u0323", 10000);
+        assertScan("  multiple   spaces  ", 10000);
+        assertScan("truncated http://example.com text", 12);
+        assertScan("", 10000);
+    }
+
+    @Test
+    public final void testLongRuns() {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            buf.append('a');
+        }
+        final String run = buf.toString();
+        assertScan(run + "@" + run + "." + run + "." + run, 10000);
+        assertScan(run + "@" + run + run, 10000);
+        assertScan("x " + run.substring(0, 64) + "@example.com", 10000);
+        assertScan("x " + run.substring(0, 65) + "@example.com", 10000);
+        assertScan("http://" + run + run + run + run + run + run + run + run + " " + run, 10000);
+    }
+
+    @Test
+    public final void testRandom() {
+        final Random random = new Random(1);
+        for (int n = 0; n < 20000; n++) {
+            final StringBuilder buf = new StringBuilder();
+            final int pieces = random.nextInt(40);
+            for (int i = 0; i < pieces; i++) {
+                buf.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertScan(buf.toString(), random.nextBoolean() ? 10000 : random.nextInt(50));
+        }
+    }
+
+    @Test
+    public final void testBounded() {
+        final int[] reads = new int[1];
+        final String unit = "Lorem ipsum dolor sit amet, http://example.com/a?b=c foo@example.com ";
+        final CharSequence huge = new CharSequence() {
+            @Override
+            public int length() {
+                return Integer.MAX_VALUE;
+            }
+
+            @Override
+            public char charAt(final int index) {
+                reads[0]++;
+                return unit.charAt(index % unit.length());
+            }
+
+            @Override
+            public CharSequence subSequence(final int start, final int end) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final StringBuilder out = new StringBuilder();
+        new TextScanner().scan(huge, out, 1000);
+
+        final StringBuilder prefix = new StringBuilder();
+        while (prefix.length() < 20000) {
+            prefix.append(unit);
+        }
+        final StringBuilder expected = new StringBuilder();
+        appendWithRegex(prefix.toString(), expected, 1000);
+        assertEquals(expected.toString(), out.toString());
+        assertTrue(String.valueOf(reads[0]), reads[0] < 10000);
+    }
+
+    @Test
+    public final void testCount() {
+        final TextScanner scanner = new TextScanner();
+        final StringBuilder out = new StringBuilder();
+        scanner.scan("abc \u3042\u3044 http://example.com", out, 10000);
+        scanner.scan("de", out, 10000);
+        assertEquals(5, scanner.getLatinCount());
+        assertEquals(2, scanner.getNonLatinCount());
+    }
+}
@@ -105,6 +105,35 @@ public class NGramTest {
         assertEquals(NGram.normalize('\u021b'), '\u0163');
     }
 
+    /**
+     * Test method for {@link NGram#normalize(char)} for the other scripts
+     */
+    @Test
+    public final void testNormalizeOthers() {
+        assertEquals(NGram.normalize('\u2010'), ' ');
+        assertEquals(NGram.normalize('\u06cc'), '\u064a');
+        assertEquals(NGram.normalize('\u1ea0'), '\u1ec3');
+        assertEquals(NGram.normalize('\u1e9f'), '\u1e9f');
+        assertEquals(NGram.normalize('\u3044'), '\u3042');
+        assertEquals(NGram.normalize('\u30a4'), '\u30a2');
+        assertEquals(NGram.normalize('\u3106'), '\u3105');
+        assertEquals(NGram.normalize('\uac01'), '\uac00');
+        assertEquals(NGram.normalize('\uffff'), '\uffff');
+    }
+
+    /**
+     * Test method for {@link NGram#isLatin(char)} and {@link NGram#isNonLatin(char)}
+     */
+    @Test
+    public final void testCharClass() {
+        for (int i = 0; i <= Character.MAX_VALUE; ++i) {
+            final char c = (char) i;
+            assertEquals(c <= 'z' && c >= 'A', NGram.isLatin(c));
+            assertEquals(c >= '\u0300' && Character.UnicodeBlock.of(c) != Character.UnicodeBlock.LATIN_EXTENDED_ADDITIONAL,
+                    NGram.isNonLatin(c));
+        }
+    }
+
     /**
      * Test method for {@link NGram#get(int)} and {@link NGram#addChar(char)}
      */
@@ -321,4 +350,41 @@ public class NGramTest {
         assertEquals(NGram.normalize_vi("\u01B0\u0323"), "\u1EF1");
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Test method for {@link NGram#encode(CharSequence)} and {@link NGram#decode(long)}
+     */
+    @Test
+    public final void testEncode() {
+        assertEquals(NGram.encode(""), 0L);
+        assertEquals(NGram.encode("abcd"), 0L);
+        assertEquals(NGram.encode("a"), 0x10061L);
+        assertEquals(NGram.encode(" a"), 0x200200061L);
+        assertEquals(NGram.encode("\u3042\u30a2\u3105"), 0x3304230a23105L);
+        assertTrue(NGram.encode("\u0000") != NGram.encode("\u0000\u0000"));
+        assertEquals(NGram.decode(NGram.encode("a")), "a");
+        assertEquals(NGram.decode(NGram.encode(" a")), " a");
+        assertEquals(NGram.decode(NGram.encode("\uac00 \uffff")), "\uac00 \uffff");
+        assertEquals(NGram.decode(0L), null);
+    }
+
+    /**
+     * Test method for {@link NGram#getCode(int)}
+     */
+    @Test
+    public final void testGetCode() {
+        NGram ngram = new NGram();
+        final String text = "This is A PEN. \u3053\u308c\u306f\u30da\u30f3 \u0627\u06cc\u0646 \u1ea0b";
+        for (int i = 0; i < text.length(); ++i) {
+            ngram.addChar(text.charAt(i));
+            for (int n = 0; n <= NGram.N_GRAM + 1; ++n) {
+                final String gram = ngram.get(n);
+                if (gram == null) {
+                    assertEquals(ngram.getCode(n), 0L);
+                } else {
+                    assertEquals(ngram.getCode(n), NGram.encode(gram));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.codelibs.elasticsearch.langfield.detect.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Script}.
+ */
+public class ScriptTest {
+
+    @Test
+    public final void testOf() {
+        assertEquals(Script.NONE, Script.of(' '));
+        assertEquals(Script.NONE, Script.of('1'));
+        assertEquals(Script.NONE, Script.of('\u3002'));
+        assertEquals(Script.NONE, Script.of('\u0301'));
+        assertEquals(Script.NONE, Script.of('\ud840'));
+        assertEquals(Script.LATIN, Script.of('a'));
+        assertEquals(Script.LATIN, Script.of('\u00e9'));
+        assertEquals(Script.CYRILLIC, Script.of('\u0436'));
+        assertEquals(Script.GREEK, Script.of('\u03b1'));
+        assertEquals(Script.THAI, Script.of('\u0e01'));
+        assertEquals(Script.HANGUL, Script.of('\uac00'));
+        assertEquals(Script.KANA, Script.of('\u3042'));
+        assertEquals(Script.KANA, Script.of('\u30a2'));
+        assertEquals(Script.HAN, Script.of('\u4e00'));
+        assertEquals(Script.OTHER, Script.of('\u0531'));
+    }
+
+    @Test
+    public final void testLanguages() {
+        assertTrue(Script.THAI.isUsedBy("th"));
+        assertFalse(Script.THAI.isUsedBy("en"));
+        assertTrue(Script.HAN.isUsedBy("ja"));
+        assertTrue(Script.KANA.isUsedBy("ja"));
+        assertTrue(Script.isKnown("zh-cn"));
+        assertFalse(Script.isKnown("hy"));
+    }
+}
@@ -0,0 +1,25 @@
+package org.codelibs.elasticsearch.langfield.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link DetectionStats}.
+ */
+public class DetectionStatsTest {
+
+    @Test
+    public final void testCacheHit() {
+        final DetectionStats stats = new DetectionStats();
+        stats.onDetection("ja", 1000, 10, false);
+        stats.onCacheHit("ja", false);
+        stats.onCacheHit("unknown", true);
+        assertEquals(3, stats.getCount());
+        assertEquals(2, stats.getCachedCount());
+        assertEquals(1, stats.getUnknownCount());
+        assertEquals(Long.valueOf(2), stats.getLanguageCounts().get("ja"));
+        assertEquals(1000, stats.getTimeInNanos());
+        assertEquals(10, stats.getIterations());
+    }
+}
@@ -0,0 +1,42 @@
+package org.codelibs.elasticsearch.langfield.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Histogram}.
+ */
+public class HistogramTest {
+
+    @Test
+    public final void testBucket() {
+        for (int i = 0; i < Histogram.SUB_BUCKETS; i++) {
+            assertEquals(i, Histogram.bucket(i));
+        }
+        final long[] values = { 16, 17, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE };
+        for (final long value : values) {
+            final int bucket = Histogram.bucket(value);
+            assertTrue(Histogram.lowerBound(bucket) <= value);
+            assertTrue(Histogram.upperBound(bucket) >= value);
+            assertTrue(Histogram.upperBound(bucket) - Histogram.lowerBound(bucket) <= value / Histogram.SUB_BUCKETS);
+        }
+        assertEquals(Histogram.bucket(Long.MAX_VALUE - 1), Histogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public final void testPercentile() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.percentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        histogram.record(-1);
+        assertEquals(1001, histogram.count());
+        assertEquals(500500000L, histogram.sum());
+        assertEquals(500000, histogram.percentile(50), 500000 / Histogram.SUB_BUCKETS);
+        assertEquals(990000, histogram.percentile(99), 990000 / Histogram.SUB_BUCKETS);
+        assertEquals(0, histogram.percentile(0));
+    }
+}
@@ -0,0 +1,42 @@
+package org.codelibs.elasticsearch.langfield.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Rate}.
+ */
+public class RateTest {
+
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(Rate.INTERVAL_SECONDS);
+
+    @Test
+    public final void testRate() {
+        long now = 0;
+        final Rate rate = new Rate(now);
+        assertEquals(0, rate.get(now), 0.0);
+        for (int i = 0; i < 50; i++) {
+            rate.mark(now);
+        }
+        assertEquals(0, rate.get(now), 0.0);
+        now += INTERVAL;
+        assertEquals(10, rate.get(now), 0.0);
+
+        // steady load converges to the current rate
+        for (int t = 0; t < 120; t++) {
+            for (int i = 0; i < 100; i++) {
+                rate.mark(now);
+            }
+            now += INTERVAL;
+        }
+        assertEquals(20, rate.get(now), 0.01);
+
+        // after ten idle minutes the rate falls close to 0
+        now += TimeUnit.MINUTES.toNanos(10);
+        assertTrue(rate.get(now) < 0.01);
+    }
+}